@@ -8,6 +8,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
 
 @Configuration
 public class FileStorageConfig {
@@ -21,16 +22,18 @@ public class FileStorageConfig {
     @Value("${memzy.storage.temp-path}")
     private String tempPath;
 
+    @Value("${memzy.media.thumbnail-sizes}")
+    private List<Integer> thumbnailSizes;
+
     @PostConstruct
     public void init() {
         try {
             Files.createDirectories(Paths.get(originalPath));
             Files.createDirectories(Paths.get(thumbnailPath));
             Files.createDirectories(Paths.get(tempPath));
-            Files.createDirectories(Paths.get(thumbnailPath, "150"));
-            Files.createDirectories(Paths.get(thumbnailPath, "300"));
-            Files.createDirectories(Paths.get(thumbnailPath, "600"));
-            Files.createDirectories(Paths.get(thumbnailPath, "1200"));
+            for (Integer size : thumbnailSizes) {
+                Files.createDirectories(Paths.get(thumbnailPath, String.valueOf(size)));
+            }
         } catch (IOException e) {
             throw new RuntimeException("Could not create storage directories!", e);
         }
@@ -5,11 +5,14 @@ import com.memzy.dto.MediaFileDto;
 import com.memzy.model.MediaFile;
 import com.memzy.service.AlbumService;
 import com.memzy.service.MediaFileService;
+import com.memzy.service.ZipDownloadService;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -24,6 +27,9 @@ public class AlbumController {
     @Autowired
     private MediaFileService mediaFileService;
 
+    @Autowired
+    private ZipDownloadService zipDownloadService;
+
     @PostMapping
     public ResponseEntity<AlbumDto> createAlbum(@RequestBody Map<String, Object> request) {
         try {
@@ -119,6 +125,24 @@ public class AlbumController {
         }
     }
 
+    /**
+     * Download all media of an album as one ZIP, streamed while it is built. Browsers open it as
+     * a link with a {@code downloadToken} from {@code POST /api/media/download-token}.
+     */
+    @GetMapping("/{albumId}/download")
+    public void downloadAlbum(@PathVariable Long albumId, HttpServletResponse response) throws IOException {
+        List<ZipDownloadService.Entry> entries;
+        String albumName;
+        try {
+            entries = zipDownloadService.getAlbumEntries(albumId);
+            albumName = albumService.getAlbumById(albumId).getName();
+        } catch (RuntimeException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        zipDownloadService.stream(entries, albumName + ".zip", response);
+    }
+
     @PutMapping("/{albumId}/cover/{mediaId}")
     public ResponseEntity<AlbumDto> setAlbumCover(
             @PathVariable Long albumId,
@@ -0,0 +1,153 @@
+package com.memzy.controller;
+
+import com.memzy.dto.ChunkedUploadDto;
+import com.memzy.dto.MediaFileDto;
+import com.memzy.service.ChunkedUploadService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Resumable chunked uploads for large files.
+ *
+ * POST   /api/media/uploads                    create a session (fileName, fileSize, chunkSize?, sha256?)
+ * PUT    /api/media/uploads/{id}/chunks/{n}    upload chunk n as the raw request body, in any order
+ * HEAD   /api/media/uploads/{id}               current offset in the Upload-Offset header
+ * GET    /api/media/uploads/{id}               offset plus received / missing chunks
+ * POST   /api/media/uploads/{id}/complete      assemble, verify and import the file
+ * DELETE /api/media/uploads/{id}               abort and discard received chunks
+ */
+@RestController
+@RequestMapping("/api/media/uploads")
+public class ChunkedUploadController {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedUploadController.class);
+
+    private static final String UPLOAD_OFFSET = "Upload-Offset";
+    private static final String UPLOAD_LENGTH = "Upload-Length";
+
+    @Autowired
+    private ChunkedUploadService chunkedUploadService;
+
+    @PostMapping
+    public ResponseEntity<?> createUpload(@RequestBody Map<String, Object> request) {
+        try {
+            String fileName = (String) request.get("fileName");
+            long fileSize = ((Number) request.get("fileSize")).longValue();
+            Long chunkSize = request.containsKey("chunkSize") ? ((Number) request.get("chunkSize")).longValue() : null;
+            String sha256 = (String) request.get("sha256");
+
+            ChunkedUploadDto upload = chunkedUploadService.createUpload(fileName, fileSize, chunkSize, sha256);
+            return ResponseEntity.created(URI.create("/api/media/uploads/" + upload.getUploadId()))
+                    .header(UPLOAD_OFFSET, String.valueOf(upload.getOffset()))
+                    .header(UPLOAD_LENGTH, String.valueOf(upload.getFileSize()))
+                    .body(upload);
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", String.valueOf(e.getMessage())));
+        } catch (IOException e) {
+            logger.error("Failed to create chunked upload", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @PutMapping("/{uploadId}/chunks/{index}")
+    public ResponseEntity<?> uploadChunk(
+            @PathVariable String uploadId,
+            @PathVariable int index,
+            HttpServletRequest request
+    ) {
+        try {
+            ChunkedUploadDto upload = chunkedUploadService.uploadChunk(uploadId, index, request.getInputStream());
+            return ResponseEntity.ok()
+                    .header(UPLOAD_OFFSET, String.valueOf(upload.getOffset()))
+                    .body(upload);
+        } catch (RuntimeException e) {
+            return errorResponse(e);
+        } catch (IOException e) {
+            logger.error("Failed to store chunk {} of upload {}", index, uploadId, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @RequestMapping(value = "/{uploadId}", method = RequestMethod.HEAD)
+    public ResponseEntity<Void> getUploadOffset(@PathVariable String uploadId) {
+        try {
+            ChunkedUploadDto upload = chunkedUploadService.getStatus(uploadId);
+            return ResponseEntity.ok()
+                    .header(UPLOAD_OFFSET, String.valueOf(upload.getOffset()))
+                    .header(UPLOAD_LENGTH, String.valueOf(upload.getFileSize()))
+                    .header(HttpHeaders.CACHE_CONTROL, "no-store")
+                    .build();
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.notFound().build();
+        } catch (SecurityException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        } catch (IOException | RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    @GetMapping("/{uploadId}")
+    public ResponseEntity<?> getUploadStatus(@PathVariable String uploadId) {
+        try {
+            ChunkedUploadDto upload = chunkedUploadService.getStatus(uploadId);
+            return ResponseEntity.ok()
+                    .header(UPLOAD_OFFSET, String.valueOf(upload.getOffset()))
+                    .header(HttpHeaders.CACHE_CONTROL, "no-store")
+                    .body(upload);
+        } catch (RuntimeException e) {
+            return errorResponse(e);
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @PostMapping("/{uploadId}/complete")
+    public ResponseEntity<?> completeUpload(@PathVariable String uploadId) {
+        try {
+            MediaFileDto mediaFile = chunkedUploadService.completeUpload(uploadId);
+            return ResponseEntity.ok(mediaFile);
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        } catch (RuntimeException e) {
+            return errorResponse(e);
+        } catch (IOException e) {
+            logger.error("Failed to complete chunked upload {}", uploadId, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<?> abortUpload(@PathVariable String uploadId) {
+        try {
+            chunkedUploadService.abortUpload(uploadId);
+            return ResponseEntity.noContent().build();
+        } catch (RuntimeException e) {
+            return errorResponse(e);
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    private ResponseEntity<?> errorResponse(RuntimeException e) {
+        HttpStatus status;
+        if (e instanceof NoSuchElementException) {
+            status = HttpStatus.NOT_FOUND;
+        } else if (e instanceof SecurityException) {
+            status = HttpStatus.FORBIDDEN;
+        } else {
+            status = HttpStatus.BAD_REQUEST;
+        }
+        return ResponseEntity.status(status).body(Map.of("error", String.valueOf(e.getMessage())));
+    }
+}
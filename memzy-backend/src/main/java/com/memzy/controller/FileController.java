@@ -1,20 +1,94 @@
 package com.memzy.controller;
 
+import com.memzy.repository.MediaFileRepository;
+import com.memzy.service.FaststartService;
+import com.memzy.service.FileStreamingService;
+import com.memzy.service.HlsStreamingService;
+import com.memzy.service.RenditionService;
+import com.memzy.service.ThumbnailService;
+import com.memzy.service.VideoPreviewService;
+import com.memzy.service.VideoSpriteService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.UrlResource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.WebRequest;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @RestController
 @RequestMapping("/api/files")
 public class FileController {
 
+    private static final Logger logger = LoggerFactory.getLogger(FileController.class);
+
+    // <fileHash>_<size>.jpg, as written by ThumbnailService
+    private static final Pattern THUMBNAIL_FILE_NAME = Pattern.compile("([0-9a-fA-F]+)_(\\d+)\\.jpg");
+
+    // <fileHash>.vtt and <fileHash>.jpg, as written by VideoSpriteService
+    private static final Pattern SPRITE_FILE_NAME = Pattern.compile("([0-9a-fA-F]+)\\.(vtt|jpg)");
+
+    // <fileHash>.mp4, as written by VideoPreviewService
+    private static final Pattern PREVIEW_FILE_NAME = Pattern.compile("([0-9a-fA-F]+)\\.mp4");
+
+    // master.m3u8, <height>p.m3u8 and <height>p_<index>.ts, as listed by HlsStreamingService
+    private static final Pattern HLS_MEDIA_PLAYLIST = Pattern.compile("(\\d+)p\\.m3u8");
+    private static final Pattern HLS_SEGMENT = Pattern.compile("(\\d+)p_(\\d+)\\.ts");
+
+    private static final Pattern HASH = Pattern.compile("[0-9a-fA-F]+");
+
+    private static final MediaType HLS_PLAYLIST = MediaType.parseMediaType("application/vnd.apple.mpegurl");
+
+    private static final MediaType MPEG_TS = MediaType.parseMediaType("video/mp2t");
+
+    private static final MediaType WEBVTT = MediaType.parseMediaType("text/vtt");
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
+    @Autowired
+    private VideoSpriteService videoSpriteService;
+
+    @Autowired
+    private VideoPreviewService videoPreviewService;
+
+    @Autowired
+    private FileStreamingService fileStreamingService;
+
+    @Autowired
+    private RenditionService renditionService;
+
+    @Autowired
+    private HlsStreamingService hlsStreamingService;
+
+    @Autowired
+    private FaststartService faststartService;
+
+    @Autowired
+    private MediaFileRepository mediaFileRepository;
+
     @Value("${memzy.storage.original-path:./storage/original}")
     private String originalPath;
 
@@ -24,61 +98,356 @@ public class FileController {
     @GetMapping("/thumbnails/{size}/{filename}")
     public ResponseEntity<Resource> getThumbnail(
             @PathVariable String size,
-            @PathVariable String filename
+            @PathVariable String filename,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            WebRequest webRequest,
+            HttpServletResponse response
     ) {
         try {
-            Path filePath = Paths.get(thumbnailPath, size, filename);
-            Resource resource = new UrlResource(filePath.toUri());
+            Resource resource;
+            MediaType contentType = MediaType.IMAGE_JPEG;
+
+            Matcher matcher = THUMBNAIL_FILE_NAME.matcher(filename);
+            if (matcher.matches() && matcher.group(2).equals(size)) {
+                // Sizes other than the eager ones are rendered the first time they are asked for
+                ThumbnailService.ThumbnailFormat format = acceptsWebp(accept)
+                        ? ThumbnailService.ThumbnailFormat.WEBP
+                        : ThumbnailService.ThumbnailFormat.JPEG;
+                // Thumbnails are content-addressed, so revalidation is answered without touching the store
+                String eTag = thumbnailService.getThumbnailETag(matcher.group(1), Integer.parseInt(size), format);
+                if (webRequest.checkNotModified(eTag)) {
+                    return withThumbnailCaching(ResponseEntity.status(HttpStatus.NOT_MODIFIED)).build();
+                }
+                resource = thumbnailService.getOrRenderThumbnail(matcher.group(1), Integer.parseInt(size), format);
+                // A WebP request may be answered with the JPEG; tag the response with what is sent
+                response.setHeader(HttpHeaders.ETAG, thumbnailService.getThumbnailETag(resource.getFilename()));
+                contentType = MediaType.parseMediaType(
+                        ThumbnailService.ThumbnailFormat.of(resource.getFilename()).getContentType());
+            } else {
+                resource = new UrlResource(Paths.get(thumbnailPath, size, filename).toUri());
+            }
 
             if (resource.exists() && resource.isReadable()) {
-                return ResponseEntity.ok()
-                        .contentType(MediaType.IMAGE_JPEG)
-                        .header(HttpHeaders.CACHE_CONTROL, "max-age=31536000")
+                return withThumbnailCaching(ResponseEntity.ok())
+                        .contentType(contentType)
                         .body(resource);
             } else {
                 return ResponseEntity.notFound().build();
             }
+        } catch (IllegalArgumentException | NoSuchElementException e) {
+            return ResponseEntity.notFound().build();
         } catch (Exception e) {
+            logger.error("Failed to serve thumbnail {}/{}", size, filename, e);
             return ResponseEntity.internalServerError().build();
         }
     }
 
-    @GetMapping("/original/{filename}")
-    public ResponseEntity<Resource> getOriginalFile(@PathVariable String filename) {
-        try {
-            Path filePath = Paths.get(originalPath, filename);
-            Resource resource = new UrlResource(filePath.toUri());
+    @GetMapping("/sprites/{filename}")
+    public ResponseEntity<Resource> getSprite(
+            @PathVariable String filename,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept
+    ) {
+        Matcher matcher = SPRITE_FILE_NAME.matcher(filename);
+        if (!matcher.matches()) {
+            return ResponseEntity.notFound().build();
+        }
+        String fileHash = matcher.group(1);
 
-            if (resource.exists() && resource.isReadable()) {
-                // Detect content type from filename
-                String contentType = "application/octet-stream";
-                String lowerFilename = filename.toLowerCase();
-
-                if (lowerFilename.endsWith(".jpg") || lowerFilename.endsWith(".jpeg")) {
-                    contentType = "image/jpeg";
-                } else if (lowerFilename.endsWith(".png")) {
-                    contentType = "image/png";
-                } else if (lowerFilename.endsWith(".gif")) {
-                    contentType = "image/gif";
-                } else if (lowerFilename.endsWith(".webp")) {
-                    contentType = "image/webp";
-                } else if (lowerFilename.endsWith(".mp4")) {
-                    contentType = "video/mp4";
-                } else if (lowerFilename.endsWith(".avi")) {
-                    contentType = "video/x-msvideo";
-                } else if (lowerFilename.endsWith(".mov")) {
-                    contentType = "video/quicktime";
-                }
+        Path spritePath;
+        MediaType contentType;
+        if (matcher.group(2).equals("vtt")) {
+            spritePath = videoSpriteService.getTrack(fileHash);
+            contentType = WEBVTT;
+        } else {
+            ThumbnailService.ThumbnailFormat format = acceptsWebp(accept)
+                    ? ThumbnailService.ThumbnailFormat.WEBP
+                    : ThumbnailService.ThumbnailFormat.JPEG;
+            spritePath = videoSpriteService.getSheet(fileHash, format);
+            contentType = spritePath == null ? MediaType.IMAGE_JPEG : MediaType.parseMediaType(
+                    ThumbnailService.ThumbnailFormat.of(spritePath.getFileName().toString()).getContentType());
+        }
 
-                return ResponseEntity.ok()
-                        .contentType(MediaType.parseMediaType(contentType))
-                        .header(HttpHeaders.CACHE_CONTROL, "max-age=31536000")
-                        .body(resource);
+        if (spritePath == null) {
+            // Videos ingested before sprites existed get them the first time they are asked for,
+            // unless generating them has already failed
+            if (!videoSpriteService.hasFailed(fileHash)) {
+                videoSpriteService.submit(fileHash);
+            }
+            return ResponseEntity.notFound().build();
+        }
+
+        // Named after the video's content hash, so the name is a strong validator; Spring answers
+        // If-None-Match / If-Modified-Since with a 304 without reading the file
+        return withThumbnailCaching(ResponseEntity.ok())
+                .contentType(contentType)
+                .eTag(spritePath.getFileName().toString())
+                .lastModified(spritePath.toFile().lastModified())
+                .body(new FileSystemResource(spritePath));
+    }
+
+    @GetMapping("/previews/{filename}")
+    public ResponseEntity<Resource> getPreviewClip(@PathVariable String filename) {
+        Matcher matcher = PREVIEW_FILE_NAME.matcher(filename);
+        if (!matcher.matches()) {
+            return ResponseEntity.notFound().build();
+        }
+        String fileHash = matcher.group(1);
+
+        Path clipPath = videoPreviewService.getPreview(fileHash);
+        if (clipPath == null) {
+            // Videos ingested before preview clips existed get one the first time it is asked
+            // for, unless encoding it has already failed
+            if (!videoPreviewService.hasFailed(fileHash)) {
+                videoPreviewService.submit(fileHash);
+            }
+            return ResponseEntity.notFound().build();
+        }
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("video/mp4"))
+                .header(HttpHeaders.CACHE_CONTROL, "max-age=31536000")
+                .eTag(filename)
+                .lastModified(clipPath.toFile().lastModified())
+                .body(new FileSystemResource(clipPath));
+    }
+
+    /**
+     * HLS playlists and segments of a video: {@code master.m3u8}, then one
+     * {@code <height>p.m3u8} per rendition listing its {@code <height>p_<index>.ts} segments.
+     * Segments are transcoded on first request.
+     */
+    @GetMapping("/hls/{fileHash}/{filename}")
+    public void getHlsFile(
+            @PathVariable String fileHash,
+            @PathVariable String filename,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+        if (!HASH.matcher(fileHash).matches()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        Matcher playlist = HLS_MEDIA_PLAYLIST.matcher(filename);
+        Matcher segment = HLS_SEGMENT.matcher(filename);
+        try {
+            if (filename.equals("master.m3u8") || playlist.matches()) {
+                String body = playlist.matches()
+                        ? hlsStreamingService.getMediaPlaylist(fileHash, Integer.parseInt(playlist.group(1)))
+                        : hlsStreamingService.getMasterPlaylist(fileHash);
+                byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+                String eTag = "\"" + DigestUtils.md5DigestAsHex(bytes) + "\"";
+                response.setHeader(HttpHeaders.CACHE_CONTROL, "max-age=3600");
+                if (new ServletWebRequest(request, response).checkNotModified(eTag)) {
+                    return;
+                }
+                response.setContentType(HLS_PLAYLIST.toString());
+                response.setContentLength(bytes.length);
+                response.getOutputStream().write(bytes);
+            } else if (segment.matches()) {
+                Path segmentPath = hlsStreamingService.getSegment(fileHash,
+                        Integer.parseInt(segment.group(1)), Integer.parseInt(segment.group(2)));
+                fileStreamingService.stream(segmentPath, MPEG_TS, "max-age=86400", null, request, response);
             } else {
-                return ResponseEntity.notFound().build();
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
             }
+        } catch (NoSuchElementException | NumberFormatException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+        } catch (RejectedExecutionException e) {
+            // Every transcode slot is busy; players retry failed segment loads
+            response.setHeader(HttpHeaders.RETRY_AFTER, "5");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        } catch (IOException e) {
+            if (response.isCommitted()) {
+                logger.debug("Streaming HLS {} of {} aborted: {}", filename, fileHash, e.getMessage());
+            } else {
+                logger.error("HLS {} of {} failed", filename, fileHash, e);
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+        }
+    }
+
+    /**
+     * An image (or video poster) at an arbitrary size. {@code w}/{@code h} are rounded up to an
+     * allowed size; {@code fit} is {@code contain} (default) or {@code cover}; {@code fmt} is
+     * {@code jpg}, {@code webp} or, by default, negotiated from {@code Accept}.
+     */
+    @GetMapping("/render/{fileHash}")
+    public ResponseEntity<Resource> getRendition(
+            @PathVariable String fileHash,
+            @RequestParam(required = false) Integer w,
+            @RequestParam(required = false) Integer h,
+            @RequestParam(defaultValue = "contain") String fit,
+            @RequestParam(defaultValue = "auto") String fmt,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            WebRequest webRequest,
+            HttpServletResponse response
+    ) {
+        int width = renditionService.clampSize(w);
+        int height = renditionService.clampSize(h);
+        if (!HASH.matcher(fileHash).matches() || (width == 0 && height == 0)) {
+            return ResponseEntity.badRequest().build();
+        }
+        RenditionService.Fit renditionFit;
+        ThumbnailService.ThumbnailFormat format;
+        try {
+            renditionFit = RenditionService.Fit.valueOf(fit.toUpperCase());
+            format = switch (fmt.toLowerCase()) {
+                case "auto" -> acceptsWebp(accept)
+                        ? ThumbnailService.ThumbnailFormat.WEBP
+                        : ThumbnailService.ThumbnailFormat.JPEG;
+                case "jpg", "jpeg" -> ThumbnailService.ThumbnailFormat.JPEG;
+                case "webp" -> ThumbnailService.ThumbnailFormat.WEBP;
+                default -> throw new IllegalArgumentException("Unsupported format: " + fmt);
+            };
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        // Renditions are content-addressed like thumbnails; revalidation never renders
+        String eTag = renditionService.getRenditionName(fileHash, width, height, renditionFit, format);
+        if (webRequest.checkNotModified(eTag)) {
+            return withThumbnailCaching(ResponseEntity.status(HttpStatus.NOT_MODIFIED)).build();
+        }
+
+        try {
+            Path rendition = renditionService.getOrRender(fileHash, width, height, renditionFit, format);
+            // A WebP request may be answered with the JPEG; tag the response with what is sent
+            response.setHeader(HttpHeaders.ETAG, "\"" + rendition.getFileName() + "\"");
+            return withThumbnailCaching(ResponseEntity.ok())
+                    .contentType(MediaType.parseMediaType(
+                            ThumbnailService.ThumbnailFormat.of(rendition.getFileName().toString()).getContentType()))
+                    .body(new FileSystemResource(rendition));
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "5")
+                    .build();
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.notFound().build();
         } catch (Exception e) {
+            logger.error("Failed to render {} at {}x{}", fileHash, width, height, e);
             return ResponseEntity.internalServerError().build();
         }
     }
+
+    @GetMapping("/original/{filename}")
+    public void getOriginalFile(
+            @PathVariable String filename,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+        Path filePath = Paths.get(originalPath, filename);
+        if (!Files.isRegularFile(filePath) || !Files.isReadable(filePath)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        try {
+            // Range requests let players seek and downloads resume without resending the file
+            fileStreamingService.stream(filePath, getOriginalContentType(filename), "max-age=31536000",
+                    getOriginalETag(filePath, ""), request, response);
+        } catch (IOException e) {
+            if (response.isCommitted()) {
+                // Usually the client went away mid-transfer, e.g. after seeking elsewhere
+                logger.debug("Streaming {} aborted: {}", filename, e.getMessage());
+            } else {
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+        }
+    }
+
+    /**
+     * An original for inline playback. MP4/MOV files with their index at the end are served from
+     * their faststart copy once it exists, so the player can start without fetching the tail of
+     * the file first; downloads keep using {@code /original}, which is always the uploaded file.
+     */
+    @GetMapping("/playback/{filename}")
+    public void getPlaybackFile(
+            @PathVariable String filename,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+        Path originalFile = Paths.get(originalPath, filename);
+        if (!Files.isRegularFile(originalFile) || !Files.isReadable(originalFile)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        Path filePath = faststartService.getPlaybackFile(originalFile);
+        String eTag = getOriginalETag(originalFile, filePath.equals(originalFile) ? "" : "-faststart");
+
+        try {
+            // The same URL switches to the copy once it is written, so revalidate each time;
+            // the ETag differs between the two files, and a match is a cheap 304
+            fileStreamingService.stream(filePath, getOriginalContentType(filename), "no-cache",
+                    eTag, request, response);
+        } catch (IOException e) {
+            if (response.isCommitted()) {
+                logger.debug("Streaming {} aborted: {}", filename, e.getMessage());
+            } else {
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+        }
+    }
+
+    /**
+     * A strong ETag for an original, or a file derived from it, from the original's content hash.
+     * Unlike length and modification time it stays the same when storage is restored or copied
+     * to another node. Null for files without a hashed media row; the streaming service then
+     * falls back to length and modification time, which is still strong as stored names are
+     * never reused.
+     */
+    private String getOriginalETag(Path originalFile, String suffix) {
+        // Rows store the path as it was configured at upload, relative or absolute
+        List<String> hashes = mediaFileRepository.findFileHashesByFilePathIn(
+                List.of(originalFile.toString(), originalFile.toAbsolutePath().toString()));
+        return hashes.isEmpty() ? null : "\"" + hashes.get(0) + suffix + "\"";
+    }
+
+    private static MediaType getOriginalContentType(String filename) {
+        String contentType = "application/octet-stream";
+        String lowerFilename = filename.toLowerCase();
+
+        if (lowerFilename.endsWith(".jpg") || lowerFilename.endsWith(".jpeg")) {
+            contentType = "image/jpeg";
+        } else if (lowerFilename.endsWith(".png")) {
+            contentType = "image/png";
+        } else if (lowerFilename.endsWith(".gif")) {
+            contentType = "image/gif";
+        } else if (lowerFilename.endsWith(".webp")) {
+            contentType = "image/webp";
+        } else if (lowerFilename.endsWith(".mp4")) {
+            contentType = "video/mp4";
+        } else if (lowerFilename.endsWith(".avi")) {
+            contentType = "video/x-msvideo";
+        } else if (lowerFilename.endsWith(".mov")) {
+            contentType = "video/quicktime";
+        }
+
+        return MediaType.parseMediaType(contentType);
+    }
+
+    private ResponseEntity.BodyBuilder withThumbnailCaching(ResponseEntity.BodyBuilder response) {
+        response.header(HttpHeaders.CACHE_CONTROL, "max-age=31536000");
+        if (thumbnailService.isWebpEnabled()) {
+            // Same URL, different body depending on Accept; caches must key on it
+            response.header(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        }
+        return response;
+    }
+
+    /**
+     * Only an explicit image/webp entry counts; wildcards say nothing about WebP support.
+     */
+    private boolean acceptsWebp(String accept) {
+        if (accept == null || accept.isBlank()) {
+            return false;
+        }
+        try {
+            return MediaType.parseMediaTypes(accept).stream()
+                    .anyMatch(type -> "image".equals(type.getType())
+                            && "webp".equals(type.getSubtype())
+                            && type.getQualityValue() > 0);
+        } catch (InvalidMediaTypeException e) {
+            return false;
+        }
+    }
 }
@@ -163,6 +163,8 @@ public class ImageEditingController {
             Map<Integer, String> thumbnails = thumbnailService.generateThumbnails(editedFile, fileHash);
             if (!thumbnails.isEmpty()) {
                 newMedia.setThumbnailPath(fileHash);
+                newMedia.setBlurHash(thumbnailService.generateBlurHash(fileHash));
+                newMedia.setThumbnailSignature(thumbnailService.getRenditionSignature());
             }
 
             // Extract metadata
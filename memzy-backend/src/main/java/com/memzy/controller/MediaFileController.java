@@ -1,7 +1,15 @@
 package com.memzy.controller;
 
+import com.memzy.dto.HashPreflightDto;
 import com.memzy.dto.MediaFileDto;
+import com.memzy.security.JwtUtil;
+import com.memzy.service.BulkUploadService;
 import com.memzy.service.MediaFileService;
+import com.memzy.service.ThumbnailCache;
+import com.memzy.service.ThumbnailLayoutMigrationService;
+import com.memzy.service.ThumbnailRegenerationService;
+import com.memzy.service.ZipDownloadService;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
@@ -10,18 +18,45 @@ import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/media")
 public class MediaFileController {
 
+    private static final int MAX_PREFLIGHT_FILES = 5000;
+
+    private static final int MAX_DOWNLOAD_FILES = 10000;
+
     @Autowired
     private MediaFileService mediaFileService;
 
+    @Autowired
+    private BulkUploadService bulkUploadService;
+
+    @Autowired
+    private ThumbnailLayoutMigrationService thumbnailLayoutMigrationService;
+
+    @Autowired
+    private ThumbnailCache thumbnailCache;
+
+    @Autowired
+    private ThumbnailRegenerationService thumbnailRegenerationService;
+
+    @Autowired
+    private ZipDownloadService zipDownloadService;
+
+    @Autowired
+    private JwtUtil jwtUtil;
+
     @PostMapping(value = "/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public ResponseEntity<MediaFileDto> uploadMedia(@RequestParam("file") MultipartFile file) {
         try {
@@ -34,6 +69,68 @@ public class MediaFileController {
         }
     }
 
+    /**
+     * Upload many files in one multipart request. Files are ingested in parallel and one JSON
+     * result per file is streamed back (application/x-ndjson) in completion order.
+     */
+    @PostMapping(value = "/upload/bulk", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public void bulkUpload(@RequestParam("files") List<MultipartFile> files, HttpServletResponse response) throws IOException {
+        try {
+            bulkUploadService.bulkUpload(files, response);
+        } catch (RuntimeException e) {
+            if (!response.isCommitted()) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            }
+        }
+    }
+
+    /**
+     * Pre-flight check before uploading: takes [{sha256, size}] and reports which files the
+     * user already has, so clients only send the new ones.
+     */
+    @PostMapping("/preflight")
+    public ResponseEntity<?> checkExistingHashes(@RequestBody List<HashPreflightDto> files) {
+        if (files.size() > MAX_PREFLIGHT_FILES) {
+            return ResponseEntity.badRequest().body(Map.of("error", "At most " + MAX_PREFLIGHT_FILES + " files per request"));
+        }
+        try {
+            return ResponseEntity.ok(mediaFileService.checkExistingHashes(files));
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        }
+    }
+
+    /**
+     * A short-lived token for starting a download by browser navigation, passed as the
+     * {@code downloadToken} parameter. The browser then streams the file to disk; fetched by
+     * script, the whole archive would be held in memory before it could be saved.
+     */
+    @PostMapping("/download-token")
+    public ResponseEntity<?> createDownloadToken() {
+        String username = SecurityContextHolder.getContext().getAuthentication().getName();
+        return ResponseEntity.ok(Map.of("token", jwtUtil.generateDownloadToken(username)));
+    }
+
+    /**
+     * Download the originals of the given media ids as one ZIP, streamed while it is built.
+     * Takes a form post, so a browser can start it as a navigation.
+     */
+    @PostMapping("/download")
+    public void downloadZip(@RequestParam List<Long> mediaIds, HttpServletResponse response) throws IOException {
+        if (mediaIds.isEmpty() || mediaIds.size() > MAX_DOWNLOAD_FILES) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Between 1 and " + MAX_DOWNLOAD_FILES + " files per download");
+            return;
+        }
+        List<ZipDownloadService.Entry> entries;
+        try {
+            entries = zipDownloadService.getMediaEntries(mediaIds);
+        } catch (RuntimeException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        zipDownloadService.stream(entries, "memzy-" + LocalDate.now() + ".zip", response);
+    }
+
     @GetMapping
     public ResponseEntity<Page<MediaFileDto>> getUserMedia(
             @RequestParam(defaultValue = "0") int page,
@@ -97,4 +194,58 @@ public class MediaFileController {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
+
+    // The job and its checkpoint cover every user's media, so only administrators may see it
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping("/thumbnail-regeneration")
+    public ResponseEntity<?> getThumbnailRegenerationStatus() {
+        return ResponseEntity.ok(thumbnailRegenerationService.getStatus());
+    }
+
+    @PreAuthorize("hasRole('ADMIN')")
+    @PostMapping("/thumbnail-regeneration")
+    public ResponseEntity<?> startThumbnailRegeneration(
+            @RequestParam(defaultValue = "false") boolean force,
+            @RequestParam(defaultValue = "false") boolean restart) {
+        try {
+            if (!thumbnailRegenerationService.start(force, restart)) {
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", "Thumbnail regeneration is already running"));
+            }
+            return ResponseEntity.accepted().body(thumbnailRegenerationService.getStatus());
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @PreAuthorize("hasRole('ADMIN')")
+    @DeleteMapping("/thumbnail-regeneration")
+    public ResponseEntity<?> stopThumbnailRegeneration() {
+        if (!thumbnailRegenerationService.stop()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", "Thumbnail regeneration is not running"));
+        }
+        return ResponseEntity.accepted().body(thumbnailRegenerationService.getStatus());
+    }
+
+    // The migration rewrites every user's thumbnail tree, so only administrators may see or start it
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping("/thumbnail-migration")
+    public ResponseEntity<?> getThumbnailMigrationStatus() {
+        return ResponseEntity.ok(thumbnailLayoutMigrationService.getStatus());
+    }
+
+    @PreAuthorize("hasRole('ADMIN')")
+    @PostMapping("/thumbnail-migration")
+    public ResponseEntity<?> startThumbnailMigration() {
+        if (!thumbnailLayoutMigrationService.start()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", "Thumbnail migration is already running"));
+        }
+        return ResponseEntity.accepted().body(thumbnailLayoutMigrationService.getStatus());
+    }
+
+    // Cache statistics cover the whole node, not the caller's media
+    @PreAuthorize("hasRole('ADMIN')")
+    @GetMapping("/thumbnail-cache")
+    public ResponseEntity<?> getThumbnailCacheStats() {
+        return ResponseEntity.ok(thumbnailCache.getStats());
+    }
 }
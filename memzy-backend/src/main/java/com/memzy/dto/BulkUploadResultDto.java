@@ -0,0 +1,19 @@
+package com.memzy.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkUploadResultDto {
+
+    private Integer index;      // Position of the file in the request
+    private String fileName;
+    private Boolean success;
+    private MediaFileDto mediaFile;
+    private String error;
+}
@@ -0,0 +1,26 @@
+package com.memzy.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChunkedUploadDto {
+
+    private String uploadId;
+    private String fileName;
+    private Long fileSize;
+    private Long chunkSize;
+    private Integer totalChunks;
+    private Long offset;
+    private List<Integer> receivedChunks;
+    private List<Integer> missingChunks;
+    private LocalDateTime createdAt;
+}
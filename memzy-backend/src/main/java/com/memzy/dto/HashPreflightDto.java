@@ -0,0 +1,18 @@
+package com.memzy.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class HashPreflightDto {
+
+    private String sha256;
+    private Long size;
+    private Boolean exists;
+    private Long mediaId;
+}
@@ -25,6 +25,8 @@ public class MediaFileDto {
     private Integer height;
     private Integer duration;
     private String thumbnailPath;
+    private String blurHash;
+    private MediaFile.ProcessingStatus processingStatus;
     private LocalDateTime dateTaken;
     private Boolean isFavorite;
     private Double latitude;
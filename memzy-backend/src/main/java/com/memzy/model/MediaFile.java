@@ -17,7 +17,10 @@ import java.util.Set;
     @Index(name = "idx_media_type", columnList = "media_type"),
     @Index(name = "idx_created_at", columnList = "created_at"),
     @Index(name = "idx_file_path", columnList = "file_path"),
-    @Index(name = "idx_owner_id", columnList = "owner_id")
+    @Index(name = "idx_owner_id", columnList = "owner_id"),
+    @Index(name = "idx_owner_file_hash", columnList = "owner_id, file_hash"),
+    @Index(name = "idx_file_hash", columnList = "file_hash"),
+    @Index(name = "idx_processing_status", columnList = "processing_status")
 })
 @Data
 @Builder
@@ -57,6 +60,17 @@ public class MediaFile {
     @Column(name = "thumbnail_path", length = 1000)
     private String thumbnailPath;
 
+    @Column(name = "blur_hash", length = 64)  // Placeholder painted while the thumbnail loads
+    private String blurHash;
+
+    @Column(name = "thumbnail_signature", length = 64)  // Settings the thumbnails were rendered with
+    private String thumbnailSignature;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "processing_status")
+    @Builder.Default
+    private ProcessingStatus processingStatus = ProcessingStatus.READY;
+
     @Column(name = "file_hash")  // For duplicate detection
     private String fileHash;
 
@@ -139,4 +153,11 @@ public class MediaFile {
         IMAGE,
         VIDEO
     }
+
+    public enum ProcessingStatus {
+        PENDING,     // Original stored, waiting for the processing pipeline
+        PROCESSING,  // Metadata / thumbnails are being produced
+        READY,
+        FAILED
+    }
 }
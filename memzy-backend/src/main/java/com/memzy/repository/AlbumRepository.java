@@ -21,6 +21,8 @@ public interface AlbumRepository extends JpaRepository<Album, Long> {
 
     Optional<Album> findByShareToken(String shareToken);
 
+    List<Album> findByCoverImageUrlStartingWith(String prefix);
+
     @Query("SELECT a FROM Album a WHERE a.owner = :user OR :user MEMBER OF a.sharedWith")
     List<Album> findAccessibleAlbums(@Param("user") User user);
 
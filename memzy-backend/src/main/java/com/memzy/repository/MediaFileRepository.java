@@ -5,11 +5,13 @@ import com.memzy.model.User;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -22,7 +24,23 @@ public interface MediaFileRepository extends JpaRepository<MediaFile, Long> {
 
     Page<MediaFile> findByOwnerAndMediaTypeAndIsDeletedFalse(User owner, MediaFile.MediaType mediaType, Pageable pageable);
 
-    Optional<MediaFile> findByFileHash(String fileHash);
+    List<MediaFile> findByOwnerAndMediaTypeAndThumbnailPathIsNullAndIsDeletedFalse(User owner, MediaFile.MediaType mediaType);
+
+    Optional<MediaFile> findFirstByFileHash(String fileHash);
+
+    @Modifying
+    @Query("UPDATE MediaFile m SET m.thumbnailPath = :newPath WHERE m.fileHash = :fileHash AND m.thumbnailPath = :oldPath")
+    int updateThumbnailPath(@Param("fileHash") String fileHash, @Param("oldPath") String oldPath, @Param("newPath") String newPath);
+
+    Optional<MediaFile> findFirstByOwnerAndFileHashAndIsDeletedFalse(User owner, String fileHash);
+
+    // Content hash of the original stored at any of the given paths, for ETags of served files
+    @Query("SELECT m.fileHash FROM MediaFile m WHERE m.filePath IN :filePaths AND m.fileHash IS NOT NULL")
+    List<String> findFileHashesByFilePathIn(@Param("filePaths") Collection<String> filePaths);
+
+    // Returns [fileHash, fileSize, id] rows; a projection keeps the eager tag/album joins out of the pre-flight check
+    @Query("SELECT m.fileHash, m.fileSize, m.id FROM MediaFile m WHERE m.owner = :owner AND m.isDeleted = false AND m.fileHash IN :hashes")
+    List<Object[]> findExistingHashesByOwner(@Param("owner") User owner, @Param("hashes") Collection<String> hashes);
 
     @Query("SELECT m FROM MediaFile m WHERE m.owner = :owner AND m.isDeleted = false AND m.isFavorite = true")
     Page<MediaFile> findFavoritesByOwner(@Param("owner") User owner, Pageable pageable);
@@ -50,7 +68,19 @@ public interface MediaFileRepository extends JpaRepository<MediaFile, Long> {
     @Query("SELECT SUM(m.fileSize) FROM MediaFile m WHERE m.owner = :owner AND m.isDeleted = false")
     Long sumFileSizeByOwnerAndIsDeletedFalse(@Param("owner") User owner);
 
-    List<MediaFile> findByOwnerAndMediaTypeAndThumbnailPathIsNullAndIsDeletedFalse(User owner, MediaFile.MediaType mediaType);
+    @Query("SELECT m.id FROM MediaFile m WHERE m.processingStatus IN :statuses AND m.isDeleted = false ORDER BY m.id")
+    List<Long> findIdsByProcessingStatusIn(@Param("statuses") List<MediaFile.ProcessingStatus> statuses, Pageable pageable);
+
+    // A null status counts as a match: rows from before the pipeline existed have none
+    @Query("SELECT m.id FROM MediaFile m WHERE m.id > :afterId AND (m.processingStatus IN :statuses OR m.processingStatus IS NULL) AND m.isDeleted = false ORDER BY m.id")
+    List<Long> findIdsByProcessingStatusInAfter(@Param("statuses") List<MediaFile.ProcessingStatus> statuses, @Param("afterId") Long afterId, Pageable pageable);
+
+    @Query("SELECT COUNT(m) FROM MediaFile m WHERE (m.processingStatus IN :statuses OR m.processingStatus IS NULL) AND m.isDeleted = false")
+    long countByProcessingStatusIn(@Param("statuses") List<MediaFile.ProcessingStatus> statuses);
+
+    @Modifying
+    @Query("UPDATE MediaFile m SET m.processingStatus = :status WHERE m.processingStatus IS NULL")
+    int setProcessingStatusWhereNull(@Param("status") MediaFile.ProcessingStatus status);
 
     @Query("SELECT m FROM MediaFile m LEFT JOIN FETCH m.tags LEFT JOIN FETCH m.albums WHERE m.id = :id")
     Optional<MediaFile> findByIdWithTagsAndAlbums(@Param("id") Long id);
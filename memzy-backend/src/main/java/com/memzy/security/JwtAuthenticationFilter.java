@@ -18,6 +18,8 @@ import java.io.IOException;
 @Component
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
+    public static final String DOWNLOAD_TOKEN_PARAMETER = "downloadToken";
+
     @Autowired
     private JwtUtil jwtUtil;
 
@@ -32,9 +34,18 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
         String username = null;
         String jwt = null;
+        boolean downloadToken = false;
 
         if (authorizationHeader != null && authorizationHeader.startsWith("Bearer ")) {
             jwt = authorizationHeader.substring(7);
+        } else if (request.getRequestURI().endsWith("/download")) {
+            // Downloads are started by navigating the browser, so the archive streams to disk;
+            // a navigation cannot send the header and carries a download token instead
+            jwt = request.getParameter(DOWNLOAD_TOKEN_PARAMETER);
+            downloadToken = true;
+        }
+
+        if (jwt != null) {
             try {
                 username = jwtUtil.extractUsername(jwt);
             } catch (Exception e) {
@@ -45,7 +56,7 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
             UserDetails userDetails = userDetailsService.loadUserByUsername(username);
 
-            if (jwtUtil.validateToken(jwt, userDetails)) {
+            if (downloadToken ? jwtUtil.validateDownloadToken(jwt, userDetails) : jwtUtil.validateToken(jwt, userDetails)) {
                 UsernamePasswordAuthenticationToken authenticationToken =
                         new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities());
                 authenticationToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
@@ -20,6 +20,10 @@ public class JwtUtil {
 
     private static final Logger logger = LoggerFactory.getLogger(JwtUtil.class);
 
+    private static final String PURPOSE_CLAIM = "purpose";
+
+    private static final String DOWNLOAD_PURPOSE = "download";
+
     @Value("${memzy.jwt.secret}")
     private String secret;
 
@@ -29,6 +33,9 @@ public class JwtUtil {
     @Value("${memzy.jwt.refresh-expiration}")
     private Long refreshExpiration;
 
+    @Value("${memzy.jwt.download-expiration:60000}")
+    private Long downloadExpiration;
+
     private SecretKey getSigningKey() {
         byte[] keyBytes = Decoders.BASE64.decode(secret);
         return Keys.hmacShaKeyFor(keyBytes);
@@ -69,6 +76,20 @@ public class JwtUtil {
         return createToken(claims, userDetails.getUsername(), refreshExpiration);
     }
 
+    /**
+     * A short-lived token that can only start downloads, for browser navigations (links and form
+     * posts) that cannot send the Authorization header. It is not accepted as a bearer token.
+     */
+    public String generateDownloadToken(String username) {
+        Map<String, Object> claims = new HashMap<>();
+        claims.put(PURPOSE_CLAIM, DOWNLOAD_PURPOSE);
+        return createToken(claims, username, downloadExpiration);
+    }
+
+    private String extractPurpose(String token) {
+        return extractClaim(token, claims -> claims.get(PURPOSE_CLAIM, String.class));
+    }
+
     private String createToken(Map<String, Object> claims, String subject, Long expiration) {
         return Jwts.builder()
                 .claims(claims)
@@ -82,7 +103,8 @@ public class JwtUtil {
     public Boolean validateToken(String token, UserDetails userDetails) {
         try {
             final String username = extractUsername(token);
-            return (username.equals(userDetails.getUsername()) && !isTokenExpired(token));
+            // Tokens issued for one purpose, such as downloads, do not grant general access
+            return (username.equals(userDetails.getUsername()) && !isTokenExpired(token) && extractPurpose(token) == null);
         } catch (SecurityException e) {
             logger.error("Invalid JWT signature: {}", e.getMessage());
         } catch (MalformedJwtException e) {
@@ -97,6 +119,17 @@ public class JwtUtil {
         return false;
     }
 
+    public Boolean validateDownloadToken(String token, UserDetails userDetails) {
+        try {
+            final String username = extractUsername(token);
+            return (username.equals(userDetails.getUsername()) && !isTokenExpired(token)
+                    && DOWNLOAD_PURPOSE.equals(extractPurpose(token)));
+        } catch (JwtException | IllegalArgumentException e) {
+            logger.error("Download token validation error: {}", e.getMessage());
+        }
+        return false;
+    }
+
     public Boolean validateToken(String token) {
         try {
             Jwts.parser().verifyWith(getSigningKey()).build().parseSignedClaims(token);
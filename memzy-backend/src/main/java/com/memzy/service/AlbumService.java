@@ -11,11 +11,15 @@ import com.memzy.repository.UserRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 @Service
@@ -23,6 +27,11 @@ public class AlbumService {
 
     private static final Logger logger = LoggerFactory.getLogger(AlbumService.class);
 
+    private static final int COVER_SIZE = 600;
+
+    private static final String LEGACY_COVER_URL_PREFIX = "/api/files/thumbnails/";
+    private static final Pattern LEGACY_COVER_URL = Pattern.compile("/api/files/thumbnails/(\\d+)/medium");
+
     @Autowired
     private AlbumRepository albumRepository;
 
@@ -163,9 +172,7 @@ public class AlbumService {
         MediaFile mediaFile = mediaFileRepository.findById(mediaId)
                 .orElseThrow(() -> new RuntimeException("Media file not found"));
 
-        // Build the thumbnail URL for the cover image
-        String coverUrl = "/api/files/thumbnails/" + mediaFile.getId() + "/medium";
-        album.setCoverImageUrl(coverUrl);
+        album.setCoverImageUrl(buildCoverUrl(mediaFile));
         album = albumRepository.save(album);
 
         logger.info("Album cover set: {} - {}", album.getName(), mediaFile.getFileName());
@@ -173,6 +180,35 @@ public class AlbumService {
         return convertToDto(album);
     }
 
+    /**
+     * Covers set before the render endpoint existed point at a URL that never resolved
+     * ({@code /api/files/thumbnails/<mediaId>/medium}); point them at the real cover crop.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void fixLegacyCoverUrls() {
+        List<Album> albums = albumRepository.findByCoverImageUrlStartingWith(LEGACY_COVER_URL_PREFIX);
+        for (Album album : albums) {
+            Matcher matcher = LEGACY_COVER_URL.matcher(album.getCoverImageUrl());
+            album.setCoverImageUrl(matcher.matches()
+                    ? mediaFileRepository.findById(Long.parseLong(matcher.group(1))).map(this::buildCoverUrl).orElse(null)
+                    : null);
+            albumRepository.save(album);
+        }
+        if (!albums.isEmpty()) {
+            logger.info("Fixed cover URLs of {} albums", albums.size());
+        }
+    }
+
+    // Square crop, rendered once and cached by the render endpoint. Renders are looked up by
+    // content hash, so media without one gets no cover.
+    private String buildCoverUrl(MediaFile mediaFile) {
+        if (mediaFile.getFileHash() == null) {
+            return null;
+        }
+        return "/api/files/render/" + mediaFile.getFileHash() + "?w=" + COVER_SIZE + "&h=" + COVER_SIZE + "&fit=cover";
+    }
+
     @Transactional
     public AlbumDto removeAlbumCover(Long albumId) {
         Album album = albumRepository.findById(albumId)
@@ -0,0 +1,118 @@
+package com.memzy.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Runs optional per-file media work (preview clips, sprites, faststart copies, prefetches) on
+ * low-priority threads so it never competes with ingest or with requests. Each key is queued at
+ * most once at a time, and work is dropped rather than queued when the queue is full; callers
+ * queue it again the next time it is asked for.
+ *
+ * With a failure marker, a job that fails leaves an empty marker file and {@link #hasFailed}
+ * reports it until the file is deleted, so broken files are not retried on every request.
+ */
+class BackgroundJobQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(BackgroundJobQueue.class);
+
+    @FunctionalInterface
+    interface Job {
+        void run() throws Exception;
+    }
+
+    private final String name;
+    private final Function<String, Path> failureMarker;
+    private final ThreadPoolExecutor executor;
+
+    // Keys queued or running
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param name          what the jobs produce, for thread names and log messages
+     * @param failureMarker where the marker file of a failed key goes, or null to not record failures
+     */
+    BackgroundJobQueue(String name, int workers, int queueCapacity, Function<String, Path> failureMarker) {
+        this.name = name;
+        this.failureMarker = failureMarker;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(name.replace(' ', '-') + "-");
+        threadFactory.setThreadPriority(Thread.MIN_PRIORITY);
+        executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Queue {@code job} unless one for {@code key} is already queued or running.
+     *
+     * @return false if the job was not queued
+     */
+    boolean submit(String key, Job job) {
+        if (!pending.add(key)) {
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    job.run();
+                } catch (NoSuchElementException e) {
+                    // Unknown key; cheap to look up again, and not worth a marker file per guess
+                    logger.debug("Not building {} for {}: {}", name, key, e.getMessage());
+                } catch (Exception e) {
+                    logger.warn("Could not build {} for {}: {}", name, key, e.getMessage());
+                    // Interrupted by shutdown rather than failed; try again after the restart
+                    if (!Thread.currentThread().isInterrupted()) {
+                        markFailed(key);
+                    }
+                } finally {
+                    pending.remove(key);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            pending.remove(key);
+            logger.debug("{} queue full, skipping {}", name, key);
+            return false;
+        }
+    }
+
+    boolean isPending(String key) {
+        return pending.contains(key);
+    }
+
+    /**
+     * Whether a job for this key has failed before. Always false without a failure marker.
+     */
+    boolean hasFailed(String key) {
+        return failureMarker != null && Files.exists(failureMarker.apply(key));
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void markFailed(String key) {
+        if (failureMarker == null) {
+            return;
+        }
+        Path marker = failureMarker.apply(key);
+        try {
+            Files.createDirectories(marker.getParent());
+            Files.write(marker, new byte[0]);
+        } catch (IOException e) {
+            logger.warn("Could not record failed {} for {}: {}", name, key, e.getMessage());
+        }
+    }
+}
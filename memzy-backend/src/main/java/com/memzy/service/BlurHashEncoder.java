@@ -0,0 +1,121 @@
+package com.memzy.service;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Encoder for BlurHash (https://blurha.sh), a ~30 character string that clients decode into a
+ * blurred placeholder to paint while the real thumbnail is loading.
+ *
+ * The cost is proportional to the pixel count, so callers should pass an image already scaled
+ * down to a few dozen pixels.
+ */
+final class BlurHashEncoder {
+
+    private static final String BASE83_CHARS =
+            "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~";
+
+    private BlurHashEncoder() {
+    }
+
+    static String encode(BufferedImage image, int xComponents, int yComponents) {
+        if (xComponents < 1 || xComponents > 9 || yComponents < 1 || yComponents > 9) {
+            throw new IllegalArgumentException("BlurHash components must be between 1 and 9");
+        }
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+
+        double[] linearR = new double[pixels.length];
+        double[] linearG = new double[pixels.length];
+        double[] linearB = new double[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            linearR[i] = srgbToLinear((pixels[i] >> 16) & 0xff);
+            linearG[i] = srgbToLinear((pixels[i] >> 8) & 0xff);
+            linearB[i] = srgbToLinear(pixels[i] & 0xff);
+        }
+
+        double[][] factors = new double[xComponents * yComponents][];
+        for (int j = 0; j < yComponents; j++) {
+            for (int i = 0; i < xComponents; i++) {
+                double normalisation = (i == 0 && j == 0) ? 1 : 2;
+                double r = 0;
+                double g = 0;
+                double b = 0;
+                for (int y = 0; y < height; y++) {
+                    double basisY = Math.cos(Math.PI * j * y / height);
+                    for (int x = 0; x < width; x++) {
+                        double basis = normalisation * Math.cos(Math.PI * i * x / width) * basisY;
+                        int index = y * width + x;
+                        r += basis * linearR[index];
+                        g += basis * linearG[index];
+                        b += basis * linearB[index];
+                    }
+                }
+                double scale = 1.0 / (width * height);
+                factors[j * xComponents + i] = new double[]{r * scale, g * scale, b * scale};
+            }
+        }
+
+        StringBuilder hash = new StringBuilder();
+        encodeBase83((xComponents - 1) + (yComponents - 1) * 9, 1, hash);
+
+        double maximumValue;
+        if (factors.length > 1) {
+            double actualMaximum = 0;
+            for (int i = 1; i < factors.length; i++) {
+                for (double component : factors[i]) {
+                    actualMaximum = Math.max(actualMaximum, Math.abs(component));
+                }
+            }
+            int quantisedMaximum = (int) Math.max(0, Math.min(82, Math.floor(actualMaximum * 166 - 0.5)));
+            maximumValue = (quantisedMaximum + 1) / 166.0;
+            encodeBase83(quantisedMaximum, 1, hash);
+        } else {
+            maximumValue = 1;
+            encodeBase83(0, 1, hash);
+        }
+
+        encodeBase83(encodeDc(factors[0]), 4, hash);
+        for (int i = 1; i < factors.length; i++) {
+            encodeBase83(encodeAc(factors[i], maximumValue), 2, hash);
+        }
+        return hash.toString();
+    }
+
+    private static int encodeDc(double[] value) {
+        return (linearToSrgb(value[0]) << 16) + (linearToSrgb(value[1]) << 8) + linearToSrgb(value[2]);
+    }
+
+    private static int encodeAc(double[] value, double maximumValue) {
+        int quantR = quantiseAc(value[0], maximumValue);
+        int quantG = quantiseAc(value[1], maximumValue);
+        int quantB = quantiseAc(value[2], maximumValue);
+        return quantR * 19 * 19 + quantG * 19 + quantB;
+    }
+
+    private static int quantiseAc(double value, double maximumValue) {
+        double normalised = value / maximumValue;
+        double signedRoot = Math.copySign(Math.sqrt(Math.abs(normalised)), normalised);
+        return (int) Math.max(0, Math.min(18, Math.floor(signedRoot * 9 + 9.5)));
+    }
+
+    private static double srgbToLinear(int value) {
+        double v = value / 255.0;
+        return v <= 0.04045 ? v / 12.92 : Math.pow((v + 0.055) / 1.055, 2.4);
+    }
+
+    private static int linearToSrgb(double value) {
+        double v = Math.max(0, Math.min(1, value));
+        return v <= 0.0031308
+                ? (int) (v * 12.92 * 255 + 0.5)
+                : (int) ((1.055 * Math.pow(v, 1 / 2.4) - 0.055) * 255 + 0.5);
+    }
+
+    private static void encodeBase83(int value, int length, StringBuilder target) {
+        for (int i = 1; i <= length; i++) {
+            int digit = (int) (value / Math.pow(83, length - i)) % 83;
+            target.append(BASE83_CHARS.charAt(digit));
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.memzy.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.memzy.dto.BulkUploadResultDto;
+import com.memzy.dto.MediaFileDto;
+import com.memzy.model.User;
+import com.memzy.repository.UserRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingests many files from one multipart request on a shared pool sized to the machine, and
+ * streams one NDJSON line per file back to the client as soon as that file is done.
+ */
+@Service
+public class BulkUploadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkUploadService.class);
+
+    @Value("${memzy.upload.bulk.workers:0}")
+    private int workers;
+
+    // Files from all bulk requests waiting for a worker; beyond this they are rejected
+    @Value("${memzy.upload.bulk.queue-capacity:500}")
+    private int queueCapacity;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private FileIngestService fileIngestService;
+
+    @Autowired
+    private MediaFileService mediaFileService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        int poolSize = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("bulk-ingest-"),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Ingest the files and write the NDJSON results straight to the response on the request
+     * thread. Writing synchronously keeps the request open for as long as the batch takes,
+     * with no async request timeout cutting the stream short, and keeps the multipart files
+     * alive until every worker is done with them.
+     */
+    public void bulkUpload(List<MultipartFile> files, HttpServletResponse response) throws IOException {
+        // Resolve the user on the request thread; the ingest workers have no security context
+        String username = SecurityContextHolder.getContext().getAuthentication().getName();
+        User user = userRepository.findByUsername(username)
+                .orElseThrow(() -> new RuntimeException("User not found"));
+
+        response.setContentType("application/x-ndjson");
+        OutputStream outputStream = response.getOutputStream();
+
+        // Files of this batch by SHA-256, so identical files are imported once
+        Map<String, CompletableFuture<MediaFileDto>> imports = new ConcurrentHashMap<>();
+
+        CompletionService<BulkUploadResultDto> completionService = new ExecutorCompletionService<>(executor);
+        List<Future<BulkUploadResultDto>> futures = new ArrayList<>();
+        List<BulkUploadResultDto> rejected = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            int index = i;
+            try {
+                futures.add(completionService.submit(() -> ingest(user, index, files.get(index), imports)));
+            } catch (RejectedExecutionException e) {
+                rejected.add(failure(index, files.get(index), "Upload queue is full, retry this file later"));
+            }
+        }
+
+        int succeeded = 0;
+        try {
+            for (BulkUploadResultDto result : rejected) {
+                writeResult(outputStream, result);
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                BulkUploadResultDto result = completionService.take().get();
+                if (Boolean.TRUE.equals(result.getSuccess())) {
+                    succeeded++;
+                }
+                writeResult(outputStream, result);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(future -> future.cancel(true));
+        } catch (ExecutionException | IOException e) {
+            // Most likely the client went away; stop the files that have not started yet
+            futures.forEach(future -> future.cancel(true));
+            if (e instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException(e);
+        }
+
+        logger.info("Bulk upload by user {}: {} of {} files ingested", username, succeeded, files.size());
+    }
+
+    private void writeResult(OutputStream outputStream, BulkUploadResultDto result) throws IOException {
+        outputStream.write(objectMapper.writeValueAsBytes(result));
+        outputStream.write("\n".getBytes(StandardCharsets.UTF_8));
+        outputStream.flush();
+    }
+
+    private BulkUploadResultDto ingest(User user, int index, MultipartFile file,
+                                       Map<String, CompletableFuture<MediaFileDto>> imports) {
+        try {
+            FileIngestService.StagedFile stagedFile = fileIngestService.stage(file.getInputStream(), file.getOriginalFilename());
+
+            // The hash is only known once the file is staged. A later copy of a file in the same
+            // batch waits for the first one's import instead of racing it past the duplicate check.
+            CompletableFuture<MediaFileDto> ownImport = new CompletableFuture<>();
+            CompletableFuture<MediaFileDto> firstImport = imports.putIfAbsent(stagedFile.getFileHash(), ownImport);
+            if (firstImport != null) {
+                fileIngestService.discard(stagedFile);
+                return success(index, file, firstImport.get());
+            }
+
+            MediaFileDto mediaFile;
+            try {
+                mediaFile = mediaFileService.importStagedFile(user, stagedFile);
+                ownImport.complete(mediaFile);
+            } catch (IOException | RuntimeException e) {
+                fileIngestService.discard(stagedFile);
+                ownImport.completeExceptionally(e);
+                throw e;
+            } finally {
+                // Never leave copies waiting, e.g. when the batch is cancelled mid-import
+                ownImport.completeExceptionally(new IOException("Import of an identical file did not finish"));
+            }
+            return success(index, file, mediaFile);
+        } catch (Exception e) {
+            Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+            logger.error("Bulk upload failed for: {}", file.getOriginalFilename(), cause);
+            return failure(index, file, cause.getMessage());
+        }
+    }
+
+    private static BulkUploadResultDto success(int index, MultipartFile file, MediaFileDto mediaFile) {
+        return BulkUploadResultDto.builder()
+                .index(index)
+                .fileName(file.getOriginalFilename())
+                .success(true)
+                .mediaFile(mediaFile)
+                .build();
+    }
+
+    private static BulkUploadResultDto failure(int index, MultipartFile file, String error) {
+        return BulkUploadResultDto.builder()
+                .index(index)
+                .fileName(file.getOriginalFilename())
+                .success(false)
+                .error(error)
+                .build();
+    }
+}
@@ -0,0 +1,70 @@
+package com.memzy.service;
+
+import org.springframework.core.io.AbstractResource;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A thumbnail held in memory - a slice of a segment mapping, or a cached copy on or off the heap -
+ * served without copying it into a byte array first.
+ */
+public class ByteBufferResource extends AbstractResource {
+
+    private final String fileName;
+    private final ByteBuffer data;
+
+    public ByteBufferResource(String fileName, ByteBuffer data) {
+        this.fileName = fileName;
+        this.data = data.asReadOnlyBuffer();
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public long contentLength() {
+        return data.remaining();
+    }
+
+    @Override
+    public String getFilename() {
+        return fileName;
+    }
+
+    @Override
+    public String getDescription() {
+        return "in-memory thumbnail [" + fileName + "]";
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        ByteBuffer buffer = data.duplicate();
+        return new InputStream() {
+            @Override
+            public int read() {
+                return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] target, int offset, int length) {
+                if (length == 0) {
+                    return 0;
+                }
+                if (!buffer.hasRemaining()) {
+                    return -1;
+                }
+                int count = Math.min(length, buffer.remaining());
+                buffer.get(target, offset, count);
+                return count;
+            }
+
+            @Override
+            public int available() {
+                return buffer.remaining();
+            }
+        };
+    }
+}
@@ -0,0 +1,398 @@
+package com.memzy.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.memzy.dto.ChunkedUploadDto;
+import com.memzy.dto.MediaFileDto;
+import com.memzy.model.User;
+import com.memzy.repository.UserRepository;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Resumable uploads in the spirit of tus: a client creates an upload session, sends fixed-size
+ * chunks in any order (and in parallel), can ask for the current offset after a dropped
+ * connection, and finally asks the server to assemble, verify and ingest the file.
+ *
+ * Sessions live under temp-path/uploads/&lt;uploadId&gt;/ as a session.json plus one file per
+ * received chunk, so they survive restarts.
+ */
+@Service
+public class ChunkedUploadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedUploadService.class);
+
+    private static final String SESSION_FILE = "session.json";
+    private static final String CHUNK_SUFFIX = ".chunk";
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    @Value("${memzy.storage.temp-path}")
+    private String tempPath;
+
+    @Value("${memzy.upload.chunked.default-chunk-size:8MB}")
+    private DataSize defaultChunkSize;
+
+    @Value("${memzy.upload.chunked.max-chunk-size:64MB}")
+    private DataSize maxChunkSize;
+
+    @Value("${memzy.upload.chunked.max-file-size:20GB}")
+    private DataSize maxFileSize;
+
+    // Bounds the per-chunk bookkeeping of a session, which status and complete calls walk
+    @Value("${memzy.upload.chunked.max-chunks:10000}")
+    private int maxChunks;
+
+    @Value("${memzy.upload.chunked.expiry-hours:24}")
+    private int expiryHours;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private FileIngestService fileIngestService;
+
+    @Autowired
+    private MediaFileService mediaFileService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // Upload ids currently being assembled, so a retried "complete" cannot run twice
+    private final Set<String> completing = ConcurrentHashMap.newKeySet();
+
+    public ChunkedUploadDto createUpload(String fileName, long fileSize, Long chunkSize, String sha256) throws IOException {
+        String username = SecurityContextHolder.getContext().getAuthentication().getName();
+
+        if (fileName == null || fileName.isBlank()) {
+            throw new IllegalArgumentException("fileName is required");
+        }
+        if (fileSize <= 0 || fileSize > maxFileSize.toBytes()) {
+            throw new IllegalArgumentException("fileSize must be between 1 and " + maxFileSize.toBytes() + " bytes");
+        }
+        long effectiveChunkSize = chunkSize != null ? chunkSize : defaultChunkSize.toBytes();
+        if (effectiveChunkSize <= 0 || effectiveChunkSize > maxChunkSize.toBytes()) {
+            throw new IllegalArgumentException("chunkSize must be between 1 and " + maxChunkSize.toBytes() + " bytes");
+        }
+        long totalChunks = (fileSize + effectiveChunkSize - 1) / effectiveChunkSize;
+        if (totalChunks > maxChunks) {
+            throw new IllegalArgumentException("chunkSize must be at least " + ((fileSize + maxChunks - 1) / maxChunks)
+                    + " bytes for this file (at most " + maxChunks + " chunks per upload)");
+        }
+
+        UploadSession session = UploadSession.builder()
+                .uploadId(UUID.randomUUID().toString())
+                .username(username)
+                .fileName(Paths.get(fileName).getFileName().toString())
+                .fileSize(fileSize)
+                .chunkSize(effectiveChunkSize)
+                .totalChunks((int) totalChunks)
+                .sha256(sha256 != null ? sha256.toLowerCase() : null)
+                .createdAt(LocalDateTime.now())
+                .build();
+
+        Path sessionDir = getSessionDir(session.getUploadId());
+        Files.createDirectories(sessionDir);
+        objectMapper.writeValue(sessionDir.resolve(SESSION_FILE).toFile(), session);
+
+        logger.info("Chunked upload {} created for {} ({} bytes, {} chunks) by user: {}",
+                session.getUploadId(), session.getFileName(), fileSize, session.getTotalChunks(), username);
+        return toDto(session, sessionDir);
+    }
+
+    /**
+     * Store one chunk. The body is streamed to a private temp file and renamed into place only
+     * once it has exactly the expected length, so a chunk file on disk is always complete.
+     */
+    public ChunkedUploadDto uploadChunk(String uploadId, int index, InputStream body) throws IOException {
+        UploadSession session = loadOwnedSession(uploadId);
+        if (index < 0 || index >= session.getTotalChunks()) {
+            throw new IllegalArgumentException("Chunk index out of range: " + index);
+        }
+
+        long expectedLength = expectedChunkLength(session, index);
+        Path sessionDir = getSessionDir(uploadId);
+        Path partFile = Files.createTempFile(sessionDir, index + "-", ".part");
+
+        try {
+            long written = 0;
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            try (InputStream in = body; OutputStream out = Files.newOutputStream(partFile)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    written += read;
+                    if (written > expectedLength) {
+                        throw new IllegalArgumentException("Chunk " + index + " is larger than " + expectedLength + " bytes");
+                    }
+                    out.write(buffer, 0, read);
+                }
+            }
+            if (written != expectedLength) {
+                throw new IllegalArgumentException("Chunk " + index + " has " + written + " bytes, expected " + expectedLength);
+            }
+            moveIntoPlace(partFile, sessionDir.resolve(index + CHUNK_SUFFIX));
+        } finally {
+            Files.deleteIfExists(partFile);
+        }
+
+        return toDto(session, sessionDir);
+    }
+
+    public ChunkedUploadDto getStatus(String uploadId) throws IOException {
+        UploadSession session = loadOwnedSession(uploadId);
+        return toDto(session, getSessionDir(uploadId));
+    }
+
+    /**
+     * Concatenate all chunks in order through the normal single-pass ingest, check the declared
+     * SHA-256 and hand the file over to MediaFileService.
+     */
+    public MediaFileDto completeUpload(String uploadId) throws IOException {
+        UploadSession session = loadOwnedSession(uploadId);
+        Path sessionDir = getSessionDir(uploadId);
+
+        if (!completing.add(uploadId)) {
+            throw new IllegalStateException("Upload " + uploadId + " is already being completed");
+        }
+        try {
+            List<Integer> missing = findMissingChunks(session, sessionDir);
+            if (!missing.isEmpty()) {
+                throw new IllegalStateException("Upload " + uploadId + " is missing " + missing.size() + " chunks");
+            }
+
+            User user = userRepository.findByUsername(session.getUsername())
+                    .orElseThrow(() -> new RuntimeException("User not found"));
+            FileIngestService.StagedFile stagedFile = fileIngestService.stage(
+                    new SequenceInputStream(new ChunkEnumeration(sessionDir, session.getTotalChunks())),
+                    session.getFileName());
+
+            if (stagedFile.getSize() != session.getFileSize()
+                    || (session.getSha256() != null && !session.getSha256().equals(stagedFile.getFileHash()))) {
+                fileIngestService.discard(stagedFile);
+                throw new IllegalStateException("Assembled upload " + uploadId + " does not match the declared size or hash");
+            }
+
+            MediaFileDto mediaFile;
+            try {
+                mediaFile = mediaFileService.importStagedFile(user, stagedFile);
+            } catch (IOException | RuntimeException e) {
+                fileIngestService.discard(stagedFile);
+                throw e;
+            }
+
+            FileSystemUtils.deleteRecursively(sessionDir);
+            logger.info("Chunked upload {} completed as media {}", uploadId, mediaFile.getId());
+            return mediaFile;
+        } finally {
+            completing.remove(uploadId);
+        }
+    }
+
+    public void abortUpload(String uploadId) throws IOException {
+        loadOwnedSession(uploadId);
+        FileSystemUtils.deleteRecursively(getSessionDir(uploadId));
+        logger.info("Chunked upload {} aborted", uploadId);
+    }
+
+    @Scheduled(fixedDelay = 3600000) // Run every hour
+    public void cleanupExpiredUploads() {
+        Path uploadsDir = Paths.get(tempPath, "uploads");
+        if (!Files.isDirectory(uploadsDir)) {
+            return;
+        }
+
+        LocalDateTime cutoff = LocalDateTime.now().minusHours(expiryHours);
+        try (Stream<Path> sessionDirs = Files.list(uploadsDir)) {
+            sessionDirs.forEach(sessionDir -> {
+                try {
+                    UploadSession session = objectMapper.readValue(sessionDir.resolve(SESSION_FILE).toFile(), UploadSession.class);
+                    if (session.getCreatedAt().isBefore(cutoff) && !completing.contains(session.getUploadId())) {
+                        FileSystemUtils.deleteRecursively(sessionDir);
+                        logger.info("Removed expired chunked upload {}", session.getUploadId());
+                    }
+                } catch (IOException e) {
+                    logger.warn("Removing unreadable upload session: {}", sessionDir, e);
+                    try {
+                        FileSystemUtils.deleteRecursively(sessionDir);
+                    } catch (IOException deleteError) {
+                        logger.error("Failed to remove upload session: {}", sessionDir, deleteError);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            logger.error("Failed to clean up expired uploads", e);
+        }
+    }
+
+    private UploadSession loadOwnedSession(String uploadId) throws IOException {
+        Path sessionFile = getSessionDir(uploadId).resolve(SESSION_FILE);
+        if (!Files.exists(sessionFile)) {
+            throw new NoSuchElementException("Upload not found: " + uploadId);
+        }
+        UploadSession session = objectMapper.readValue(sessionFile.toFile(), UploadSession.class);
+
+        String username = SecurityContextHolder.getContext().getAuthentication().getName();
+        if (!session.getUsername().equals(username)) {
+            throw new SecurityException("Unauthorized to access this upload");
+        }
+        return session;
+    }
+
+    private Path getSessionDir(String uploadId) {
+        // Parsing as a UUID also guarantees the id cannot escape the uploads directory
+        try {
+            UUID.fromString(uploadId);
+        } catch (IllegalArgumentException e) {
+            throw new NoSuchElementException("Upload not found: " + uploadId);
+        }
+        return Paths.get(tempPath, "uploads", uploadId);
+    }
+
+    private long expectedChunkLength(UploadSession session, int index) {
+        long start = index * session.getChunkSize();
+        return Math.min(session.getChunkSize(), session.getFileSize() - start);
+    }
+
+    private List<Integer> findMissingChunks(UploadSession session, Path sessionDir) throws IOException {
+        BitSet received = findReceivedChunks(session, sessionDir);
+        List<Integer> missing = new ArrayList<>();
+        for (int i = received.nextClearBit(0); i < session.getTotalChunks(); i = received.nextClearBit(i + 1)) {
+            missing.add(i);
+        }
+        return missing;
+    }
+
+    /**
+     * Indexes of the chunks on disk, from a single listing of the session directory.
+     */
+    private BitSet findReceivedChunks(UploadSession session, Path sessionDir) throws IOException {
+        BitSet received = new BitSet(session.getTotalChunks());
+        try (DirectoryStream<Path> chunks = Files.newDirectoryStream(sessionDir, "*" + CHUNK_SUFFIX)) {
+            for (Path chunk : chunks) {
+                String name = chunk.getFileName().toString();
+                try {
+                    int index = Integer.parseInt(name.substring(0, name.length() - CHUNK_SUFFIX.length()));
+                    if (index >= 0 && index < session.getTotalChunks()) {
+                        received.set(index);
+                    }
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        return received;
+    }
+
+    private ChunkedUploadDto toDto(UploadSession session, Path sessionDir) throws IOException {
+        BitSet receivedChunks = findReceivedChunks(session, sessionDir);
+        List<Integer> received = new ArrayList<>();
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < session.getTotalChunks(); i++) {
+            if (receivedChunks.get(i)) {
+                received.add(i);
+            } else {
+                missing.add(i);
+            }
+        }
+
+        // Like tus' Upload-Offset: the number of contiguous bytes the server holds from the start
+        int contiguousChunks = Math.min(receivedChunks.nextClearBit(0), session.getTotalChunks());
+        long offset = Math.min(contiguousChunks * session.getChunkSize(), session.getFileSize());
+
+        return ChunkedUploadDto.builder()
+                .uploadId(session.getUploadId())
+                .fileName(session.getFileName())
+                .fileSize(session.getFileSize())
+                .chunkSize(session.getChunkSize())
+                .totalChunks(session.getTotalChunks())
+                .offset(offset)
+                .receivedChunks(received)
+                .missingChunks(missing)
+                .createdAt(session.getCreatedAt())
+                .build();
+    }
+
+    private void moveIntoPlace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Opens chunk files lazily, one at a time, so assembling never holds more than one open file.
+     */
+    private static class ChunkEnumeration implements Enumeration<InputStream> {
+        private final Path sessionDir;
+        private final int totalChunks;
+        private int next = 0;
+
+        ChunkEnumeration(Path sessionDir, int totalChunks) {
+            this.sessionDir = sessionDir;
+            this.totalChunks = totalChunks;
+        }
+
+        @Override
+        public boolean hasMoreElements() {
+            return next < totalChunks;
+        }
+
+        @Override
+        public InputStream nextElement() {
+            if (!hasMoreElements()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                return Files.newInputStream(sessionDir.resolve(next++ + CHUNK_SUFFIX));
+            } catch (IOException e) {
+                throw new IllegalStateException("Chunk disappeared while assembling upload", e);
+            }
+        }
+    }
+
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class UploadSession {
+        private String uploadId;
+        private String username;
+        private String fileName;
+        private long fileSize;
+        private long chunkSize;
+        private int totalChunks;
+        private String sha256;
+        private LocalDateTime createdAt;
+    }
+}
@@ -0,0 +1,140 @@
+package com.memzy.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the files under a directory within a byte budget, deleting the least recently used
+ * ones first. Callers write files themselves and report them with {@link #add}; lookups through
+ * {@link #contains} mark a file as used.
+ */
+class DiskLruCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiskLruCache.class);
+
+    private final String name;
+    private final Path root;
+    private final int depth;
+    private final long budget;
+
+    // Cached files in LRU order (least recently used first) with their sizes; guarded by itself
+    private final LinkedHashMap<Path, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    /**
+     * @param name  what the files are, for log messages
+     * @param depth how many directory levels below {@code root} the files are
+     */
+    DiskLruCache(String name, Path root, int depth, long budget) {
+        this.name = name;
+        this.root = root;
+        this.depth = depth;
+        this.budget = budget;
+    }
+
+    /**
+     * Whether {@code file} is cached, marking it as just used if so.
+     */
+    boolean contains(Path file) {
+        synchronized (index) {
+            if (index.get(file) != null) {
+                return true;
+            }
+        }
+        // Not indexed yet, e.g. written by a job that finished between index load and now
+        if (Files.exists(file)) {
+            try {
+                add(file, Files.size(file));
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Record a file just written, evicting older ones if the cache is over budget.
+     */
+    void add(Path file, long size) {
+        synchronized (index) {
+            Long previous = index.put(file, size);
+            bytes += size - (previous != null ? previous : 0);
+            evict();
+        }
+    }
+
+    /**
+     * Drop least recently used files until the cache fits its budget. The newest entry is
+     * always kept, even if it alone is over budget.
+     */
+    private void evict() {
+        Iterator<Map.Entry<Path, Long>> eldest = index.entrySet().iterator();
+        while (bytes > budget && index.size() > 1 && eldest.hasNext()) {
+            Map.Entry<Path, Long> victim = eldest.next();
+            eldest.remove();
+            bytes -= victim.getValue();
+            try {
+                Files.deleteIfExists(victim.getKey());
+            } catch (IOException e) {
+                logger.warn("Could not evict {} {}: {}", name, victim.getKey(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Rebuild the LRU order from disk, oldest file first, dropping temp files left by a crash.
+     */
+    void load() throws IOException {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        record CachedFile(Path path, long size, long lastModified) {
+        }
+        List<CachedFile> files;
+        try (Stream<Path> walk = Files.walk(root, depth + 1)) {
+            files = walk.filter(Files::isRegularFile)
+                    .filter(path -> {
+                        if (!path.getFileName().toString().endsWith(".part")) {
+                            return true;
+                        }
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException e) {
+                            logger.warn("Could not delete partial {} {}: {}", name, path, e.getMessage());
+                        }
+                        return false;
+                    })
+                    .map(path -> {
+                        try {
+                            return new CachedFile(path, Files.size(path), Files.getLastModifiedTime(path).toMillis());
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    })
+                    .sorted(Comparator.comparingLong(CachedFile::lastModified))
+                    .toList();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        synchronized (index) {
+            for (CachedFile file : files) {
+                index.put(file.path(), file.size());
+                bytes += file.size();
+            }
+            evict();
+            logger.info("Loaded {} cache: {} files, {} bytes", name, index.size(), bytes);
+        }
+    }
+}
@@ -33,9 +33,8 @@ public class FaceDetectionService {
     private static final int MIN_FACE_SIZE = 30;
 
     /**
-     * Detect faces in a media file
+     * Detect faces in a media file. Runs on the face stage of MediaProcessingPipeline.
      */
-    @Async
     @Transactional
     public void detectFaces(MediaFile mediaFile) {
         if (mediaFile.getMediaType() != MediaFile.MediaType.IMAGE) {
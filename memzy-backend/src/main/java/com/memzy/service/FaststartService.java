@@ -0,0 +1,211 @@
+package com.memzy.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Keeps a "faststart" copy of MP4/MOV originals whose index (the moov atom) is written after the
+ * media data, as many cameras do. A browser playing such a file has to fetch its tail before the
+ * first frame; the copy has the index up front so playback starts right away.
+ *
+ * The copy is a remux with stream copy, so it takes about as long as copying the file and has
+ * the same quality. The original is left untouched and is still what downloads get.
+ */
+@Service
+public class FaststartService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FaststartService.class);
+
+    private static final Set<String> REMUXABLE_EXTENSIONS = Set.of("mp4", "m4v", "mov");
+
+    // Stream copy runs at disk speed; this only catches a hung process
+    private static final long REMUX_TIMEOUT_SECONDS = 3600;
+
+    @Autowired
+    private FfmpegRunner ffmpegRunner;
+
+    @Value("${memzy.storage.thumbnail-path}")
+    private String thumbnailBasePath;
+
+    @Value("${memzy.media.faststart.enabled:true}")
+    private boolean enabled;
+
+    @Value("${memzy.media.faststart.workers:1}")
+    private int workers;
+
+    @Value("${memzy.media.faststart.queue-capacity:500}")
+    private int queueCapacity;
+
+    // Keyed by stored file name; failures are not recorded, the original plays fine either way
+    private BackgroundJobQueue jobs;
+
+    @PostConstruct
+    public void init() {
+        jobs = new BackgroundJobQueue("faststart copy", workers, queueCapacity, null);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobs.shutdown();
+    }
+
+    /**
+     * Queue a faststart remux of an original if it needs one. Dropped when the queue is full;
+     * the remux is queued again the next time the video is played.
+     */
+    public void submit(Path original) {
+        String name = original.getFileName().toString();
+        if (enabled && isRemuxable(name)) {
+            jobs.submit(name, () -> remux(original));
+        }
+    }
+
+    /**
+     * The file to play {@code original} from: its faststart copy if there is one, otherwise the
+     * original itself, queueing a remux if it would benefit from one.
+     */
+    public Path getPlaybackFile(Path original) {
+        String name = original.getFileName().toString();
+        if (!enabled || !isRemuxable(name)) {
+            return original;
+        }
+        Path copy = getCopyPath(name);
+        if (Files.isRegularFile(copy)) {
+            return copy;
+        }
+        try {
+            // Videos uploaded before this feature get their copy the first time they are played
+            if (!jobs.isPending(name) && needsFaststart(original)) {
+                submit(original);
+            }
+        } catch (IOException e) {
+            logger.debug("Could not inspect {}: {}", name, e.getMessage());
+        }
+        return original;
+    }
+
+    public void remux(Path original) throws IOException {
+        String name = original.getFileName().toString();
+        Path target = getCopyPath(name);
+        if (Files.exists(target) || !needsFaststart(original)) {
+            return;
+        }
+        Files.createDirectories(target.getParent());
+        Path partial = target.resolveSibling(name + "." + UUID.randomUUID() + ".part");
+
+        long startedAt = System.currentTimeMillis();
+        try {
+            String extension = getExtension(name);
+            ffmpegRunner.run(List.of(
+                    "-i", original.toString(),
+                    // Video and audio only; camera data tracks (timecode, GPS) often cannot be copied
+                    "-map", "0:v", "-map", "0:a?", "-map_metadata", "0",
+                    "-c", "copy",
+                    "-movflags", "+faststart",
+                    "-f", extension.equals("mov") ? "mov" : "mp4",
+                    partial.toString()), REMUX_TIMEOUT_SECONDS);
+            if (needsFaststart(partial) || Files.size(partial) == 0) {
+                throw new IOException("Remuxed copy is not faststart");
+            }
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Remuxed {} ({} bytes) for faststart in {}ms",
+                    name, Files.size(target), System.currentTimeMillis() - startedAt);
+        } finally {
+            Files.deleteIfExists(partial);
+        }
+    }
+
+    /**
+     * Whether the file's media data comes before its index, from the top-level atom headers
+     * alone. Files that cannot be parsed are reported as fine and left alone.
+     */
+    public static boolean needsFaststart(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(16);
+            long position = 0;
+            while (position + 8 <= length) {
+                header.clear().limit(8);
+                if (!readFully(channel, header, position)) {
+                    return false;
+                }
+                long atomSize = header.getInt(0) & 0xFFFFFFFFL;
+                String type = new String(header.array(), 4, 4, StandardCharsets.ISO_8859_1);
+                int headerLength = 8;
+                if (atomSize == 1) {
+                    // 64-bit size follows the type
+                    header.limit(16);
+                    if (!readFully(channel, header, position)) {
+                        return false;
+                    }
+                    atomSize = header.getLong(8);
+                    headerLength = 16;
+                } else if (atomSize == 0) {
+                    // Extends to the end of the file
+                    atomSize = length - position;
+                }
+                if (type.equals("moov")) {
+                    return false;
+                }
+                if (type.equals("mdat")) {
+                    return true;
+                }
+                if (atomSize < headerLength) {
+                    return false;
+                }
+                position += atomSize;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Fill {@code buffer} from its position onwards with the file bytes at the same offset from
+     * {@code position}.
+     */
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isRemuxable(String name) {
+        return REMUXABLE_EXTENSIONS.contains(getExtension(name));
+    }
+
+    private static String getExtension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 ? name.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+    }
+
+    /**
+     * {@code faststart/ab/<stored name>}. Stored names are unique and never reused, so the copy
+     * can be keyed by them and looked up without the database.
+     */
+    private Path getCopyPath(String storedName) {
+        return ShardedPaths.resolve(Paths.get(thumbnailBasePath, "faststart"), storedName, storedName);
+    }
+}
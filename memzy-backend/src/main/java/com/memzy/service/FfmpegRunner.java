@@ -0,0 +1,95 @@
+package com.memzy.service;
+
+import org.bytedeco.javacpp.Loader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the {@code ffmpeg} command line tool for jobs that are a single FFmpeg invocation, such
+ * as transcoding a time range or remuxing a file, rather than a frame-by-frame loop. Uses the
+ * executable bundled with JavaCV unless {@code memzy.media.ffmpeg-path} points at another one.
+ */
+@Component
+public class FfmpegRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(FfmpegRunner.class);
+
+    // Keep the end of FFmpeg's log for error messages
+    private static final int MAX_LOG_CHARS = 2000;
+
+    @Value("${memzy.media.ffmpeg-path:}")
+    private String ffmpegPath;
+
+    private volatile String executable;
+
+    /**
+     * Run ffmpeg with {@code arguments}, failing if it exits with an error or takes longer than
+     * {@code timeoutSeconds}. The process is killed if the calling thread is interrupted.
+     */
+    public void run(List<String> arguments, long timeoutSeconds) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(getExecutable());
+        command.addAll(List.of("-nostdin", "-hide_banner", "-loglevel", "error", "-y"));
+        command.addAll(arguments);
+
+        Path log = Files.createTempFile("ffmpeg-", ".log");
+        Process process = null;
+        try {
+            process = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(log.toFile())
+                    .start();
+            if (!process.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+                throw new IOException("ffmpeg timed out after " + timeoutSeconds + "s");
+            }
+            if (process.exitValue() != 0) {
+                throw new IOException("ffmpeg exited with " + process.exitValue() + ": " + tail(log));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while running ffmpeg");
+        } finally {
+            if (process != null && process.isAlive()) {
+                process.destroyForcibly();
+            }
+            Files.deleteIfExists(log);
+        }
+    }
+
+    private String getExecutable() throws IOException {
+        if (executable == null) {
+            synchronized (this) {
+                if (executable == null) {
+                    if (ffmpegPath != null && !ffmpegPath.isBlank()) {
+                        executable = ffmpegPath;
+                    } else {
+                        try {
+                            // Extracts the executable from the platform jar on first use
+                            executable = Loader.load(org.bytedeco.ffmpeg.ffmpeg.class);
+                        } catch (Throwable e) {
+                            throw new IOException("Bundled ffmpeg is not available; set memzy.media.ffmpeg-path", e);
+                        }
+                    }
+                    logger.info("Using ffmpeg at {}", executable);
+                }
+            }
+        }
+        return executable;
+    }
+
+    private static String tail(Path log) throws IOException {
+        String output = new String(Files.readAllBytes(log), StandardCharsets.UTF_8).strip();
+        return output.length() > MAX_LOG_CHARS ? output.substring(output.length() - MAX_LOG_CHARS) : output;
+    }
+}
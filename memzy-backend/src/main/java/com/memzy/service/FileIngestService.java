@@ -0,0 +1,194 @@
+package com.memzy.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.apache.tika.Tika;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Moves incoming media into original-path without ever holding a whole file in memory.
+ * Every byte is read exactly once: it is hashed, the first few KB are kept for MIME sniffing,
+ * and the rest goes straight to disk through a fixed-size buffer.
+ */
+@Service
+public class FileIngestService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileIngestService.class);
+
+    private static final int SNIFF_BUFFER_SIZE = 8 * 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    @Value("${memzy.storage.original-path}")
+    private String originalPath;
+
+    @Value("${memzy.storage.temp-path}")
+    private String tempPath;
+
+    private final Tika tika = new Tika();
+
+    /**
+     * Stream an upload into temp-path, computing its SHA-256 and MIME type on the way.
+     * The input stream is always closed.
+     */
+    public StagedFile stage(InputStream inputStream, String originalFileName) throws IOException {
+        Path tempFile = Files.createTempFile(Paths.get(tempPath), "ingest-", ".part");
+        MessageDigest digest = newDigest();
+        byte[] head = new byte[SNIFF_BUFFER_SIZE];
+        int headLength = 0;
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        long size = 0;
+
+        try (InputStream in = inputStream;
+             FileChannel out = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+                if (headLength < head.length) {
+                    int n = Math.min(read, head.length - headLength);
+                    System.arraycopy(buffer, 0, head, headLength, n);
+                    headLength += n;
+                }
+                ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+                while (chunk.hasRemaining()) {
+                    out.write(chunk);
+                }
+                size += read;
+            }
+            // Make sure the bytes are on disk before the file is published into original-path
+            out.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+
+        String mimeType = tika.detect(Arrays.copyOf(head, headLength), originalFileName);
+        return new StagedFile(tempFile, originalFileName, toHex(digest.digest()), mimeType, size, true);
+    }
+
+    /**
+     * Hash and sniff a file that already lives on disk (e.g. inside a watched folder) without copying it.
+     */
+    public StagedFile inspect(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] head = new byte[SNIFF_BUFFER_SIZE];
+        int headLength = 0;
+        long size = 0;
+
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                if (headLength < head.length) {
+                    int n = Math.min(buffer.remaining(), head.length - headLength);
+                    buffer.get(buffer.position(), head, headLength, n);
+                    headLength += n;
+                }
+                size += buffer.remaining();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+
+        String fileName = file.getFileName().toString();
+        String mimeType = tika.detect(Arrays.copyOf(head, headLength), fileName);
+        return new StagedFile(file, fileName, toHex(digest.digest()), mimeType, size, false);
+    }
+
+    /**
+     * Publish a staged file into original-path under a fresh name. Temporary files are moved
+     * atomically; files inspected in place are copied to temp-path first so a half-written
+     * original is never visible.
+     */
+    public Path store(StagedFile stagedFile) throws IOException {
+        Path source = stagedFile.getPath();
+        if (!stagedFile.isTemporary()) {
+            Path tempCopy = Files.createTempFile(Paths.get(tempPath), "ingest-", ".part");
+            try {
+                Files.copy(source, tempCopy, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                Files.deleteIfExists(tempCopy);
+                throw e;
+            }
+            source = tempCopy;
+        }
+
+        String savedFileName = UUID.randomUUID().toString() + getExtension(stagedFile.getOriginalFileName());
+        Path target = Paths.get(originalPath, savedFileName);
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            // temp-path lives on a different file system; fall back to a plain move
+            Files.move(source, target);
+        }
+        return target;
+    }
+
+    /**
+     * Drop a staged file that will not be stored (duplicate or unsupported type).
+     */
+    public void discard(StagedFile stagedFile) {
+        if (!stagedFile.isTemporary()) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(stagedFile.getPath());
+        } catch (IOException e) {
+            logger.warn("Failed to delete staged file: {}", stagedFile.getPath(), e);
+        }
+    }
+
+    private String getExtension(String fileName) {
+        if (fileName == null) {
+            return "";
+        }
+        int dot = fileName.lastIndexOf('.');
+        return dot >= 0 ? fileName.substring(dot) : "";
+    }
+
+    private MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private String toHex(byte[] hash) {
+        StringBuilder hexString = new StringBuilder();
+        for (byte b : hash) {
+            String hex = Integer.toHexString(0xff & b);
+            if (hex.length() == 1) hexString.append('0');
+            hexString.append(hex);
+        }
+        return hexString.toString();
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class StagedFile {
+        private final Path path;
+        private final String originalFileName;
+        private final String fileHash;
+        private final String mimeType;
+        private final long size;
+        private final boolean temporary;
+    }
+}
@@ -0,0 +1,234 @@
+package com.memzy.service;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a file to the response honouring {@code Range} requests, so seeking in a video or
+ * resuming a download only transfers the bytes asked for.
+ *
+ * Single ranges are answered with a 206 and a {@code Content-Range}, several ranges with a
+ * {@code multipart/byteranges} body, and ranges outside the file with a 416. A {@code Range}
+ * header that does not parse, or a range made against an older version of the file
+ * ({@code If-Range}), gets the whole file instead.
+ * Conditional GETs are answered with a 304 from the file's metadata alone.
+ *
+ * Whole files and single ranges are handed to Tomcat's sendfile support when the connector
+ * offers it, so the kernel copies straight from the page cache to the socket. Otherwise, and for
+ * multipart bodies, ranges are copied with positional reads on one channel.
+ */
+@Service
+public class FileStreamingService {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Request attributes of Tomcat's sendfile support (org.apache.catalina.Globals)
+    private static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_FILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_FILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    @Value("${memzy.storage.sendfile:true}")
+    private boolean sendfileEnabled;
+
+    /**
+     * Stream {@code file}, or the ranges of it the request asks for. Without an {@code eTag},
+     * a strong one is derived from the file's length and modification time.
+     */
+    public void stream(Path file, MediaType contentType, String cacheControl, String eTag,
+                       HttpServletRequest request, HttpServletResponse response) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        long length = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        if (eTag == null) {
+            eTag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+        }
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (cacheControl != null) {
+            response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+        }
+        // Sets ETag and Last-Modified, and answers 304 if the client's copy is current
+        if (new ServletWebRequest(request, response).checkNotModified(eTag, lastModified)) {
+            return;
+        }
+
+        List<long[]> ranges = null;
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader != null && isRangeCurrent(request.getHeader(HttpHeaders.IF_RANGE), eTag, lastModified)) {
+            List<HttpRange> requested;
+            try {
+                requested = HttpRange.parseRanges(rangeHeader);
+            } catch (IllegalArgumentException e) {
+                // Malformed or too many ranges; ignored like any Range header we cannot use
+                requested = List.of();
+            }
+            ranges = requested.isEmpty() ? null : resolveRanges(requested, length);
+            if (ranges != null && ranges.isEmpty()) {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                return;
+            }
+        }
+
+        boolean headOnly = "HEAD".equals(request.getMethod());
+        if (ranges == null) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType(contentType.toString());
+            response.setContentLengthLong(length);
+            if (!headOnly && !sendfile(file, 0, length - 1, request)) {
+                copy(file, List.of(new long[]{0, length - 1}), response.getOutputStream());
+            }
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        if (ranges.size() == 1) {
+            long[] range = ranges.get(0);
+            response.setContentType(contentType.toString());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, contentRange(range, length));
+            response.setContentLengthLong(range[1] - range[0] + 1);
+            if (!headOnly && !sendfile(file, range[0], range[1], request)) {
+                copy(file, ranges, response.getOutputStream());
+            }
+            return;
+        }
+
+        String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+        List<byte[]> partHeaders = new ArrayList<>();
+        long contentLength = 0;
+        for (long[] range : ranges) {
+            byte[] header = ("\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": " + contentRange(range, length) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(header);
+            contentLength += header.length + range[1] - range[0] + 1;
+        }
+        byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength += closing.length;
+
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+        if (headOnly) {
+            return;
+        }
+        ServletOutputStream out = response.getOutputStream();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            for (int i = 0; i < ranges.size(); i++) {
+                out.write(partHeaders.get(i));
+                copyRange(channel, ranges.get(i), buffer, out);
+            }
+        }
+        out.write(closing);
+    }
+
+    /**
+     * Without {@code If-Range} a range always applies. With one, only if its entity tag is the
+     * current one (strong comparison) or the file has not changed since its date.
+     */
+    private boolean isRangeCurrent(String ifRange, String eTag, long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(eTag);
+        }
+        try {
+            long since = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            // HTTP dates have second precision
+            return lastModified / 1000 == since / 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Inclusive {start, end} offsets of the satisfiable ranges. Null when several ranges add up
+     * to more than the file; the Range header is then ignored and the whole file sent, so
+     * overlapping ranges cannot multiply the bytes sent.
+     */
+    private List<long[]> resolveRanges(List<HttpRange> requested, long length) {
+        List<long[]> ranges = new ArrayList<>();
+        long total = 0;
+        for (HttpRange range : requested) {
+            long start = range.getRangeStart(length);
+            long end = range.getRangeEnd(length);
+            if (start >= length || start > end) {
+                // Starts past the end of the file; the others may still be satisfiable
+                continue;
+            }
+            ranges.add(new long[]{start, end});
+            total += end - start + 1;
+        }
+        if (ranges.size() > 1 && total > length) {
+            return null;
+        }
+        return ranges;
+    }
+
+    /**
+     * Ask the connector to send the inclusive range {@code start..end} itself once the servlet
+     * returns. False if it cannot, in which case the caller writes the body.
+     */
+    private boolean sendfile(Path file, long start, long end, HttpServletRequest request) {
+        if (!sendfileEnabled || !Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTR))) {
+            return false;
+        }
+        request.setAttribute(SENDFILE_FILENAME_ATTR, file.toAbsolutePath().toString());
+        request.setAttribute(SENDFILE_FILE_START_ATTR, start);
+        // Exclusive
+        request.setAttribute(SENDFILE_FILE_END_ATTR, end + 1);
+        return true;
+    }
+
+    private void copy(Path file, List<long[]> ranges, ServletOutputStream out) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            for (long[] range : ranges) {
+                copyRange(channel, range, buffer, out);
+            }
+        }
+    }
+
+    private void copyRange(FileChannel channel, long[] range, ByteBuffer buffer, ServletOutputStream out) throws IOException {
+        long position = range[0];
+        long end = range[1] + 1;
+        while (position < end) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("File truncated while streaming");
+            }
+            out.write(buffer.array(), 0, read);
+            position += read;
+        }
+    }
+
+    private static String contentRange(long[] range, long length) {
+        return "bytes " + range[0] + "-" + range[1] + "/" + length;
+    }
+}
@@ -0,0 +1,85 @@
+package com.memzy.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+
+/**
+ * One file per rendition under {@code memzy.storage.thumbnail-path}. Always available: it is
+ * the default store, and the fallback for renditions written before a switch to segments.
+ */
+@Component
+public class FileThumbnailStore implements ThumbnailStore {
+
+    @Value("${memzy.storage.thumbnail-path}")
+    private String thumbnailBasePath;
+
+    @Override
+    public Resource get(String fileHash, int size, ThumbnailService.ThumbnailFormat format) {
+        Path thumbnailPath = findThumbnailFile(fileHash, size, format);
+        return thumbnailPath != null ? new FileSystemResource(thumbnailPath) : null;
+    }
+
+    @Override
+    public String put(String fileHash, int size, ThumbnailService.ThumbnailFormat format, byte[] data) throws IOException {
+        Path target = getThumbnailFilePath(fileHash, size, format);
+        Files.createDirectories(target.getParent());
+
+        // Written beside the target and renamed, so a concurrent reader never sees a partial file
+        Path partial = target.resolveSibling(target.getFileName() + "." + UUID.randomUUID() + ".part");
+        try {
+            Files.write(partial, data);
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+        return target.toString();
+    }
+
+    @Override
+    public void delete(String fileHash, int size, ThumbnailService.ThumbnailFormat format) throws IOException {
+        Files.deleteIfExists(getThumbnailFilePath(fileHash, size, format));
+        Files.deleteIfExists(getLegacyThumbnailFilePath(fileHash, size, format));
+    }
+
+    /**
+     * Where a rendition is written: {@code <size>/ab/cd/<hash>_<size>.<ext>}, sharded on the first
+     * four hash characters so no directory grows past a few thousand entries.
+     */
+    public Path getThumbnailFilePath(String fileHash, int size, ThumbnailService.ThumbnailFormat format) {
+        if (fileHash.length() < 4) {
+            return getLegacyThumbnailFilePath(fileHash, size, format);
+        }
+        return Paths.get(thumbnailBasePath, String.valueOf(size),
+                fileHash.substring(0, 2), fileHash.substring(2, 4), ThumbnailStore.fileName(fileHash, size, format));
+    }
+
+    /**
+     * The original flat layout, {@code <size>/<hash>_<size>.<ext>}, still read until
+     * {@link ThumbnailLayoutMigrationService} has moved everything.
+     */
+    public Path getLegacyThumbnailFilePath(String fileHash, int size, ThumbnailService.ThumbnailFormat format) {
+        return Paths.get(thumbnailBasePath, String.valueOf(size), ThumbnailStore.fileName(fileHash, size, format));
+    }
+
+    /**
+     * The rendition on disk in either layout, or null if it has not been rendered.
+     */
+    private Path findThumbnailFile(String fileHash, int size, ThumbnailService.ThumbnailFormat format) {
+        Path sharded = getThumbnailFilePath(fileHash, size, format);
+        if (Files.exists(sharded)) {
+            return sharded;
+        }
+        Path legacy = getLegacyThumbnailFilePath(fileHash, size, format);
+        return Files.exists(legacy) ? legacy : null;
+    }
+}
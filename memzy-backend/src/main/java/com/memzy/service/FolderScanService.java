@@ -5,7 +5,6 @@ import com.memzy.model.User;
 import com.memzy.model.WatchedFolder;
 import com.memzy.repository.MediaFileRepository;
 import com.memzy.repository.WatchedFolderRepository;
-import org.apache.tika.Tika;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -18,7 +17,6 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.MessageDigest;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.stream.Stream;
@@ -28,9 +26,6 @@ public class FolderScanService {
 
     private static final Logger logger = LoggerFactory.getLogger(FolderScanService.class);
 
-    @org.springframework.beans.factory.annotation.Value("${memzy.storage.original-path}")
-    private String originalPath;
-
     @Autowired
     private WatchedFolderRepository watchedFolderRepository;
 
@@ -38,12 +33,10 @@ public class FolderScanService {
     private MediaFileRepository mediaFileRepository;
 
     @Autowired
-    private ThumbnailService thumbnailService;
+    private MediaProcessingPipeline mediaProcessingPipeline;
 
     @Autowired
-    private MetadataExtractionService metadataExtractionService;
-
-    private final Tika tika = new Tika();
+    private FileIngestService fileIngestService;
 
     private static final Set<String> SUPPORTED_IMAGE_EXTENSIONS = Set.of(
             "jpg", "jpeg", "png", "gif", "webp", "bmp", "tiff"
@@ -120,33 +113,30 @@ public class FolderScanService {
     }
 
     private boolean importFile(File file, User user) throws IOException {
-        // Generate file hash
-        byte[] fileBytes = Files.readAllBytes(file.toPath());
-        String fileHash = generateFileHash(fileBytes);
+        // Hash and sniff the file in place; it is only copied once we know it is new
+        FileIngestService.StagedFile stagedFile = fileIngestService.inspect(file.toPath());
+        String fileHash = stagedFile.getFileHash();
 
         // Check if file already exists
-        Optional<MediaFile> existing = mediaFileRepository.findByFileHash(fileHash);
-        if (existing.isPresent() && !existing.get().getIsDeleted()) {
+        Optional<MediaFile> existing = mediaFileRepository.findFirstByOwnerAndFileHashAndIsDeletedFalse(user, fileHash);
+        if (existing.isPresent()) {
             logger.debug("File already exists: {}", file.getName());
             return false;
         }
 
         // Detect MIME type
-        String mimeType = tika.detect(fileBytes);
+        String mimeType = stagedFile.getMimeType();
         MediaFile.MediaType mediaType = determineMediaType(mimeType);
 
         // Copy file to storage
         String originalFileName = file.getName();
-        String fileExtension = originalFileName.substring(originalFileName.lastIndexOf("."));
-        String savedFileName = UUID.randomUUID().toString() + fileExtension;
-        Path destinationPath = Paths.get(originalPath, savedFileName);
-        Files.copy(file.toPath(), destinationPath);
+        Path destinationPath = fileIngestService.store(stagedFile);
 
         // Create MediaFile entity
         MediaFile mediaFile = MediaFile.builder()
                 .fileName(originalFileName)
                 .filePath(destinationPath.toString())
-                .fileSize(file.length())
+                .fileSize(stagedFile.getSize())
                 .mimeType(mimeType)
                 .mediaType(mediaType)
                 .fileHash(fileHash)
@@ -154,55 +144,15 @@ public class FolderScanService {
                 .isFavorite(false)
                 .isDeleted(false)
                 .viewCount(0L)
+                .processingStatus(MediaFile.ProcessingStatus.PENDING)
                 .build();
 
-        // Extract metadata and generate thumbnails
-        File savedFile = destinationPath.toFile();
-
-        if (mediaType == MediaFile.MediaType.IMAGE) {
-            Map<String, Object> metadata = metadataExtractionService.extractImageMetadata(savedFile);
-            applyMetadata(mediaFile, metadata);
-
-            try {
-                Map<Integer, String> thumbnails = thumbnailService.generateThumbnails(savedFile, fileHash);
-                mediaFile.setThumbnailPath(thumbnails.get(300));
-            } catch (IOException e) {
-                logger.error("Failed to generate thumbnails for: {}", originalFileName, e);
-            }
-        } else if (mediaType == MediaFile.MediaType.VIDEO) {
-            Map<String, Object> metadata = metadataExtractionService.extractVideoMetadata(savedFile);
-            applyMetadata(mediaFile, metadata);
-
-            try {
-                String videoThumbnail = thumbnailService.generateVideoThumbnail(savedFile, fileHash);
-                mediaFile.setThumbnailPath(videoThumbnail);
-            } catch (IOException e) {
-                logger.error("Failed to generate video thumbnail for: {}", originalFileName, e);
-            }
-        }
-
-        mediaFileRepository.save(mediaFile);
+        mediaFile = mediaFileRepository.save(mediaFile);
+        mediaProcessingPipeline.submit(mediaFile.getId());
         logger.info("Imported file: {}", originalFileName);
         return true;
     }
 
-    private String generateFileHash(byte[] fileBytes) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(fileBytes);
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hash) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) hexString.append('0');
-                hexString.append(hex);
-            }
-            return hexString.toString();
-        } catch (Exception e) {
-            logger.error("Failed to generate file hash", e);
-            return UUID.randomUUID().toString();
-        }
-    }
-
     private MediaFile.MediaType determineMediaType(String mimeType) {
         if (mimeType.startsWith("image/")) {
             return MediaFile.MediaType.IMAGE;
@@ -211,28 +161,4 @@ public class FolderScanService {
         }
         throw new RuntimeException("Unsupported media type: " + mimeType);
     }
-
-    private void applyMetadata(MediaFile mediaFile, Map<String, Object> metadata) {
-        if (metadata.containsKey("width")) {
-            mediaFile.setWidth((Integer) metadata.get("width"));
-        }
-        if (metadata.containsKey("height")) {
-            mediaFile.setHeight((Integer) metadata.get("height"));
-        }
-        if (metadata.containsKey("dateTaken")) {
-            mediaFile.setDateTaken((LocalDateTime) metadata.get("dateTaken"));
-        }
-        if (metadata.containsKey("latitude")) {
-            mediaFile.setLatitude((Double) metadata.get("latitude"));
-        }
-        if (metadata.containsKey("longitude")) {
-            mediaFile.setLongitude((Double) metadata.get("longitude"));
-        }
-        if (metadata.containsKey("cameraMake")) {
-            mediaFile.setCameraMake((String) metadata.get("cameraMake"));
-        }
-        if (metadata.containsKey("cameraModel")) {
-            mediaFile.setCameraModel((String) metadata.get("cameraModel"));
-        }
-    }
 }
@@ -0,0 +1,422 @@
+package com.memzy.service;
+
+import com.memzy.model.MediaFile;
+import com.memzy.repository.MediaFileRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams videos over HLS as a ladder of H.264/AAC renditions, so any browser can play them and
+ * remote viewers get a bitrate their connection can carry instead of the original.
+ *
+ * Nothing is transcoded up front. Playlists are computed from the video's duration, and each
+ * segment is transcoded by ffmpeg the first time it is requested and kept on disk under a byte
+ * budget with least-recently-used eviction. After a segment is served, the next few are
+ * transcoded in the background so playback does not wait on each one. The number of ffmpeg
+ * processes is capped per node; requests from players always come before prefetching.
+ */
+@Service
+public class HlsStreamingService {
+
+    private static final Logger logger = LoggerFactory.getLogger(HlsStreamingService.class);
+
+    // How long a player's segment request waits for a free transcode slot before a 503
+    private static final long SLOT_WAIT_SECONDS = 20;
+
+    private static final long TRANSCODE_TIMEOUT_SECONDS = 300;
+
+    // A remainder shorter than this is added to the previous segment instead of getting its own
+    private static final long MIN_SEGMENT_MICROS = 1_000_000;
+
+    private static final int MAX_PROBED_VIDEOS = 1000;
+
+    @Autowired
+    private MediaFileRepository mediaFileRepository;
+
+    @Autowired
+    private FfmpegRunner ffmpegRunner;
+
+    @Value("${memzy.media.hls.enabled:true}")
+    private boolean enabled;
+
+    @Value("${memzy.media.hls.segment-seconds:6}")
+    private int segmentSeconds;
+
+    // <height>:<video bitrate> pairs; heights are of the short edge, so portrait videos get the same ladder
+    @Value("${memzy.media.hls.ladder:360:800000,540:1500000,720:3000000,1080:6000000}")
+    private List<String> ladder;
+
+    @Value("${memzy.media.hls.audio-bitrate:128000}")
+    private int audioBitrate;
+
+    // The JavaCV build of FFmpeg has OpenH264; a custom ffmpeg-path may offer libx264 instead
+    @Value("${memzy.media.hls.video-encoder:libopenh264}")
+    private String videoEncoder;
+
+    @Value("${memzy.media.hls.max-transcodes:2}")
+    private int maxTranscodes;
+
+    @Value("${memzy.media.hls.prefetch-segments:2}")
+    private int prefetchSegments;
+
+    @Value("${memzy.media.hls.path:${memzy.storage.thumbnail-path}/hls}")
+    private String cachePath;
+
+    @Value("${memzy.media.hls.cache-size:10GB}")
+    private DataSize cacheSize;
+
+    public record Rendition(int height, int bitrate) {
+        public String getName() {
+            return height + "p";
+        }
+    }
+
+    // Dimensions as displayed, i.e. after rotation
+    private record VideoInfo(Path file, int width, int height, long durationMicros) {
+    }
+
+    private List<Rendition> renditions;
+
+    private Semaphore transcodeSlots;
+
+    // Segments queued for prefetching, by cache path
+    private BackgroundJobQueue prefetches;
+
+    private DiskLruCache cache;
+
+    // One transcode per segment; concurrent requests for it wait on the same future
+    private final Map<String, CompletableFuture<Path>> pendingTranscodes = new ConcurrentHashMap<>();
+
+    private final Map<String, VideoInfo> probedVideos = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, VideoInfo> eldest) {
+                    return size() > MAX_PROBED_VIDEOS;
+                }
+            });
+
+    @PostConstruct
+    public void init() throws IOException {
+        renditions = ladder.stream()
+                .map(rung -> {
+                    String[] parts = rung.trim().split(":");
+                    return new Rendition(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+                })
+                .sorted(Comparator.comparingInt(Rendition::height))
+                .toList();
+        transcodeSlots = new Semaphore(maxTranscodes);
+
+        prefetches = new BackgroundJobQueue("hls prefetch", maxTranscodes, 100, null);
+
+        cache = new DiskLruCache("HLS segment", Paths.get(cachePath), 2, cacheSize.toBytes());
+        cache.load();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        prefetches.shutdown();
+    }
+
+    /**
+     * Master playlist listing the renditions up to the video's own resolution.
+     */
+    public String getMasterPlaylist(String fileHash) throws IOException {
+        VideoInfo video = probe(fileHash);
+        StringBuilder playlist = new StringBuilder("#EXTM3U\n#EXT-X-VERSION:3\n");
+        for (Rendition rendition : getRenditions(video)) {
+            int[] size = getOutputSize(video, rendition);
+            // Peak: the encoder may exceed the target bitrate by half on complex scenes
+            playlist.append("#EXT-X-STREAM-INF:BANDWIDTH=").append(rendition.bitrate() * 3 / 2 + audioBitrate)
+                    .append(",AVERAGE-BANDWIDTH=").append(rendition.bitrate() + audioBitrate)
+                    .append(",RESOLUTION=").append(size[0]).append('x').append(size[1]).append('\n')
+                    .append(rendition.getName()).append(".m3u8\n");
+        }
+        return playlist.toString();
+    }
+
+    /**
+     * Media playlist of one rendition. Lists every segment of the video up front (VOD), as
+     * segment boundaries follow from the duration alone.
+     */
+    public String getMediaPlaylist(String fileHash, int height) throws IOException {
+        VideoInfo video = probe(fileHash);
+        Rendition rendition = getRendition(video, height);
+        int segments = getSegmentCount(video);
+
+        long longestMicros = 0;
+        for (int i = 0; i < segments; i++) {
+            longestMicros = Math.max(longestMicros, getSegmentEnd(video, i, segments) - getSegmentStart(i));
+        }
+        StringBuilder playlist = new StringBuilder("#EXTM3U\n#EXT-X-VERSION:3\n")
+                .append("#EXT-X-TARGETDURATION:").append((long) Math.ceil(longestMicros / 1e6)).append('\n')
+                .append("#EXT-X-MEDIA-SEQUENCE:0\n")
+                .append("#EXT-X-PLAYLIST-TYPE:VOD\n");
+        for (int i = 0; i < segments; i++) {
+            long durationMicros = getSegmentEnd(video, i, segments) - getSegmentStart(i);
+            playlist.append(String.format(Locale.ROOT, "#EXTINF:%.3f,\n", durationMicros / 1e6))
+                    .append(rendition.getName()).append('_').append(i).append(".ts\n");
+        }
+        return playlist.append("#EXT-X-ENDLIST\n").toString();
+    }
+
+    /**
+     * A segment of a rendition, transcoding it first if it is not cached, and queueing the
+     * segments after it for prefetching.
+     *
+     * @throws NoSuchElementException     if the video, rendition or segment does not exist
+     * @throws RejectedExecutionException if no transcode slot frees up in time
+     */
+    public Path getSegment(String fileHash, int height, int index) throws IOException {
+        VideoInfo video = probe(fileHash);
+        Rendition rendition = getRendition(video, height);
+        int segments = getSegmentCount(video);
+        if (index < 0 || index >= segments) {
+            throw new NoSuchElementException("No segment " + index + " in " + fileHash);
+        }
+
+        Path target = getSegmentPath(fileHash, rendition, index);
+        Path segment = cache.contains(target) ? target : transcode(video, rendition, index, segments, target, false);
+
+        for (int next = index + 1; next < Math.min(segments, index + 1 + prefetchSegments); next++) {
+            prefetch(video, fileHash, rendition, next, segments);
+        }
+        return segment;
+    }
+
+    private void prefetch(VideoInfo video, String fileHash, Rendition rendition, int index, int segments) {
+        Path target = getSegmentPath(fileHash, rendition, index);
+        String key = target.toString();
+        if (pendingTranscodes.containsKey(key) || cache.contains(target)) {
+            return;
+        }
+        // Dropped when the queue is full; the player asks for the segment itself later
+        prefetches.submit(key, () -> {
+            try {
+                transcode(video, rendition, index, segments, target, true);
+            } catch (Exception e) {
+                logger.debug("Prefetching {} failed: {}", target.getFileName(), e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Transcode one segment, or wait for the transcode already running for it. Prefetches only
+     * take a free slot and give up otherwise, so they never hold up a player.
+     *
+     * @return the segment, or null if a prefetch was skipped
+     */
+    private Path transcode(VideoInfo video, Rendition rendition, int index, int segments, Path target,
+                           boolean prefetch) throws IOException {
+        String key = target.toString();
+        CompletableFuture<Path> running = pendingTranscodes.get(key);
+        if (running != null) {
+            return prefetch ? null : await(running);
+        }
+
+        try {
+            if (prefetch ? !transcodeSlots.tryAcquire() : !transcodeSlots.tryAcquire(SLOT_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                if (prefetch) {
+                    return null;
+                }
+                throw new RejectedExecutionException("No free transcode slot for " + target.getFileName());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a transcode slot");
+        }
+
+        CompletableFuture<Path> job = new CompletableFuture<>();
+        try {
+            running = pendingTranscodes.putIfAbsent(key, job);
+            if (running == null) {
+                try {
+                    // Another request may have finished it while this one waited for a slot
+                    if (!cache.contains(target)) {
+                        encode(video, rendition, index, segments, target);
+                    }
+                    job.complete(target);
+                } catch (Throwable e) {
+                    job.completeExceptionally(e);
+                } finally {
+                    pendingTranscodes.remove(key, job);
+                }
+            }
+        } finally {
+            transcodeSlots.release();
+        }
+        if (running != null) {
+            return prefetch ? null : await(running);
+        }
+        return await(job);
+    }
+
+    private void encode(VideoInfo video, Rendition rendition, int index, int segments, Path target) throws IOException {
+        long startedAt = System.currentTimeMillis();
+        long startMicros = getSegmentStart(index);
+        long durationMicros = getSegmentEnd(video, index, segments) - startMicros;
+
+        Files.createDirectories(target.getParent());
+        Path partial = target.resolveSibling(target.getFileName() + "." + UUID.randomUUID() + ".part");
+        int height = rendition.height();
+        try {
+            List<String> arguments = new ArrayList<>(List.of(
+                    // Seeking before the input decodes from the previous keyframe and drops the
+                    // frames before the start, so segments start exactly on their boundary
+                    "-ss", seconds(startMicros),
+                    "-i", video.file().toString(),
+                    "-t", seconds(durationMicros),
+                    "-map", "0:v:0", "-map", "0:a:0?", "-sn", "-dn",
+                    // Scale the short edge; ffmpeg has applied any rotation by now
+                    "-vf", "scale='if(gte(iw,ih),-2," + height + ")':'if(gte(iw,ih)," + height + ",-2)',format=yuv420p",
+                    "-c:v", videoEncoder,
+                    "-b:v", String.valueOf(rendition.bitrate()),
+                    "-maxrate", String.valueOf(rendition.bitrate() * 3 / 2),
+                    "-c:a", "aac", "-b:a", String.valueOf(audioBitrate), "-ac", "2", "-ar", "48000",
+                    // Keep the video's timeline across segments, as each one is encoded on its own
+                    "-output_ts_offset", seconds(startMicros), "-muxdelay", "0",
+                    "-f", "mpegts", partial.toString()));
+            ffmpegRunner.run(arguments, TRANSCODE_TIMEOUT_SECONDS);
+
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            cache.add(target, Files.size(target));
+        } finally {
+            Files.deleteIfExists(partial);
+        }
+        logger.debug("Transcoded {} ({}s of video) in {}ms", target.getFileName(),
+                seconds(durationMicros), System.currentTimeMillis() - startedAt);
+    }
+
+    private VideoInfo probe(String fileHash) throws IOException {
+        if (!enabled) {
+            throw new NoSuchElementException("HLS streaming is disabled");
+        }
+        VideoInfo video = probedVideos.get(fileHash);
+        if (video != null) {
+            return video;
+        }
+
+        MediaFile mediaFile = mediaFileRepository.findFirstByFileHash(fileHash)
+                .orElseThrow(() -> new NoSuchElementException("No media file for hash: " + fileHash));
+        if (mediaFile.getMediaType() != MediaFile.MediaType.VIDEO) {
+            throw new NoSuchElementException("Not a video: " + fileHash);
+        }
+        Path file = Paths.get(mediaFile.getFilePath());
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(file.toFile())) {
+            grabber.start();
+            int width = grabber.getImageWidth();
+            int height = grabber.getImageHeight();
+            long durationMicros = grabber.getLengthInTime();
+            if (width <= 0 || height <= 0 || durationMicros <= 0) {
+                throw new IOException("Cannot stream video without dimensions or duration: " + file.getFileName());
+            }
+            if (Math.abs(Math.round(grabber.getDisplayRotation())) % 180 == 90) {
+                video = new VideoInfo(file, height, width, durationMicros);
+            } else {
+                video = new VideoInfo(file, width, height, durationMicros);
+            }
+        }
+        probedVideos.put(fileHash, video);
+        return video;
+    }
+
+    /**
+     * The ladder's renditions that are not taller than the video; a video below the lowest one
+     * is offered at its own size with the lowest bitrate.
+     */
+    private List<Rendition> getRenditions(VideoInfo video) {
+        int shortEdge = Math.min(video.width(), video.height());
+        List<Rendition> available = renditions.stream()
+                .filter(rendition -> rendition.height() <= shortEdge)
+                .toList();
+        if (available.isEmpty()) {
+            return List.of(new Rendition(Math.max(2, shortEdge & ~1), renditions.get(0).bitrate()));
+        }
+        return available;
+    }
+
+    private Rendition getRendition(VideoInfo video, int height) {
+        return getRenditions(video).stream()
+                .filter(rendition -> rendition.height() == height)
+                .findFirst()
+                .orElseThrow(() -> new NoSuchElementException("No " + height + "p rendition"));
+    }
+
+    private static int[] getOutputSize(VideoInfo video, Rendition rendition) {
+        boolean landscape = video.width() >= video.height();
+        int longEdge = Math.max(video.width(), video.height());
+        int shortEdge = Math.min(video.width(), video.height());
+        int scaledLongEdge = (int) Math.round((double) longEdge * rendition.height() / shortEdge) & ~1;
+        return landscape
+                ? new int[]{scaledLongEdge, rendition.height()}
+                : new int[]{rendition.height(), scaledLongEdge};
+    }
+
+    private int getSegmentCount(VideoInfo video) {
+        long segmentMicros = segmentSeconds * 1_000_000L;
+        return (int) Math.max(1, (video.durationMicros() + segmentMicros - MIN_SEGMENT_MICROS) / segmentMicros);
+    }
+
+    private long getSegmentStart(int index) {
+        return index * segmentSeconds * 1_000_000L;
+    }
+
+    private long getSegmentEnd(VideoInfo video, int index, int segments) {
+        return index == segments - 1 ? video.durationMicros() : getSegmentStart(index + 1);
+    }
+
+    private static String seconds(long micros) {
+        return String.format(Locale.ROOT, "%.3f", micros / 1e6);
+    }
+
+    private Path await(CompletableFuture<Path> transcode) throws IOException {
+        try {
+            return transcode.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException("Transcode failed", e.getCause());
+        }
+    }
+
+    /**
+     * {@code hls/ab/<hash>/<height>p_<kbps>k_<index>.ts}. The bitrate is part of the name so
+     * that segments are transcoded again after the ladder changes.
+     */
+    private Path getSegmentPath(String fileHash, Rendition rendition, int index) {
+        return ShardedPaths.resolve(Paths.get(cachePath), fileHash, fileHash).resolve(
+                String.format(Locale.ROOT, "%s_%dk_%05d.ts", rendition.getName(), rendition.bitrate() / 1000, index));
+    }
+}
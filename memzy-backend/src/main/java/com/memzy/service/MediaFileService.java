@@ -1,5 +1,6 @@
 package com.memzy.service;
 
+import com.memzy.dto.HashPreflightDto;
 import com.memzy.dto.MediaFileDto;
 import com.memzy.dto.SimpleAlbumDto;
 import com.memzy.dto.TagDto;
@@ -9,27 +10,29 @@ import com.memzy.model.User;
 import com.memzy.repository.MediaFileRepository;
 import com.memzy.repository.TagRepository;
 import com.memzy.repository.UserRepository;
-import org.apache.tika.Tika;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.security.MessageDigest;
 import java.time.LocalDateTime;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Service
@@ -37,9 +40,6 @@ public class MediaFileService {
 
     private static final Logger logger = LoggerFactory.getLogger(MediaFileService.class);
 
-    @org.springframework.beans.factory.annotation.Value("${memzy.storage.original-path}")
-    private String originalPath;
-
     @Autowired
     private MediaFileRepository mediaFileRepository;
 
@@ -47,51 +47,85 @@ public class MediaFileService {
     private UserRepository userRepository;
 
     @Autowired
-    private ThumbnailService thumbnailService;
+    private MediaProcessingPipeline mediaProcessingPipeline;
 
     @Autowired
-    private MetadataExtractionService metadataExtractionService;
+    private TagRepository tagRepository;
 
     @Autowired
-    private FaceDetectionService faceDetectionService;
+    private FileIngestService fileIngestService;
 
     @Autowired
-    private TagRepository tagRepository;
+    private ThumbnailService thumbnailService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
 
-    private final Tika tika = new Tika();
+    // Our own proxy, so importStagedFile runs in a transaction when called from uploadMedia
+    @Lazy
+    @Autowired
+    private MediaFileService self;
 
-    @Transactional
     public MediaFileDto uploadMedia(MultipartFile file) throws IOException {
         String username = SecurityContextHolder.getContext().getAuthentication().getName();
         User user = userRepository.findByUsername(username)
                 .orElseThrow(() -> new RuntimeException("User not found"));
 
-        // Generate file hash for duplicate detection
-        String fileHash = generateFileHash(file.getBytes());
+        // Stream the upload to temp storage, hashing and sniffing it in the same pass. This runs
+        // outside any transaction so no database connection is held while a large file is read.
+        FileIngestService.StagedFile stagedFile = fileIngestService.stage(file.getInputStream(), file.getOriginalFilename());
+        try {
+            return self.importStagedFile(user, stagedFile);
+        } catch (IOException | RuntimeException e) {
+            fileIngestService.discard(stagedFile);
+            throw e;
+        }
+    }
+
+    /**
+     * Store a file that has already been staged in temp-path (e.g. an assembled chunked upload)
+     * and queue it for processing, exactly like a regular upload. If this throws, the staged
+     * file is left in place and the caller must discard it.
+     */
+    @Transactional
+    public MediaFileDto importStagedFile(User user, FileIngestService.StagedFile stagedFile) throws IOException {
+        return ingestStagedFile(user, stagedFile);
+    }
+
+    private MediaFileDto ingestStagedFile(User user, FileIngestService.StagedFile stagedFile) throws IOException {
+        String fileHash = stagedFile.getFileHash();
+        String originalFileName = stagedFile.getOriginalFileName();
 
-        // Check for duplicates
-        MediaFile existingFile = mediaFileRepository.findByFileHash(fileHash).orElse(null);
-        if (existingFile != null && !existingFile.getIsDeleted()) {
-            logger.info("Duplicate file detected: {}", file.getOriginalFilename());
+        // Check for duplicates in the user's library
+        MediaFile existingFile = mediaFileRepository.findFirstByOwnerAndFileHashAndIsDeletedFalse(user, fileHash).orElse(null);
+        if (existingFile != null) {
+            logger.info("Duplicate file detected: {}", originalFileName);
+            fileIngestService.discard(stagedFile);
             return convertToDto(existingFile);
         }
 
         // Detect MIME type
-        String mimeType = tika.detect(file.getBytes());
+        String mimeType = stagedFile.getMimeType();
         MediaFile.MediaType mediaType = determineMediaType(mimeType);
 
-        // Save original file
-        String originalFileName = file.getOriginalFilename();
-        String fileExtension = originalFileName.substring(originalFileName.lastIndexOf("."));
-        String savedFileName = UUID.randomUUID().toString() + fileExtension;
-        Path originalFilePath = Paths.get(originalPath, savedFileName);
-        Files.write(originalFilePath, file.getBytes());
+        // Save original file, and remove it again if the row referencing it is never committed
+        Path originalFilePath = fileIngestService.store(stagedFile);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        deleteQuietly(originalFilePath);
+                    }
+                }
+            });
+        }
 
         // Create MediaFile entity
         MediaFile mediaFile = MediaFile.builder()
                 .fileName(originalFileName)
                 .filePath(originalFilePath.toString())
-                .fileSize(file.getSize())
+                .fileSize(stagedFile.getSize())
                 .mimeType(mimeType)
                 .mediaType(mediaType)
                 .fileHash(fileHash)
@@ -99,46 +133,55 @@ public class MediaFileService {
                 .isFavorite(false)
                 .isDeleted(false)
                 .viewCount(0L)
+                .processingStatus(MediaFile.ProcessingStatus.PENDING)
                 .build();
 
-        // Extract metadata and generate thumbnails based on media type
-        File savedFile = originalFilePath.toFile();
+        mediaFile = mediaFileRepository.save(mediaFile);
+        logger.info("Media file uploaded: {} by user: {}", originalFileName, user.getUsername());
 
-        if (mediaType == MediaFile.MediaType.IMAGE) {
-            // Extract image metadata
-            Map<String, Object> metadata = metadataExtractionService.extractImageMetadata(savedFile);
-            applyMetadata(mediaFile, metadata);
+        // Metadata, thumbnails and face detection run in the background pipeline
+        mediaProcessingPipeline.submit(mediaFile.getId());
 
-            // Generate thumbnails
-            try {
-                Map<Integer, String> thumbnails = thumbnailService.generateThumbnails(savedFile, fileHash);
-                mediaFile.setThumbnailPath(thumbnails.get(300)); // Use 300px as default thumbnail
-            } catch (IOException e) {
-                logger.error("Failed to generate thumbnails for: {}", originalFileName, e);
-            }
-        } else if (mediaType == MediaFile.MediaType.VIDEO) {
-            // Extract video metadata
-            Map<String, Object> metadata = metadataExtractionService.extractVideoMetadata(savedFile);
-            applyMetadata(mediaFile, metadata);
+        return convertToDto(mediaFile);
+    }
 
-            // Generate video thumbnail
-            try {
-                String videoThumbnail = thumbnailService.generateVideoThumbnail(savedFile, fileHash);
-                mediaFile.setThumbnailPath(videoThumbnail);
-            } catch (IOException e) {
-                logger.error("Failed to generate video thumbnail for: {}", originalFileName, e);
-            }
-        }
+    /**
+     * Tell a client which of the files it is about to upload are already in its library, so it
+     * can skip sending them. A file only counts as present if both hash and size match; an
+     * entry without a size is never reported as present.
+     */
+    @Transactional(readOnly = true)
+    public List<HashPreflightDto> checkExistingHashes(List<HashPreflightDto> files) {
+        String username = SecurityContextHolder.getContext().getAuthentication().getName();
+        User user = userRepository.findByUsername(username)
+                .orElseThrow(() -> new RuntimeException("User not found"));
 
-        mediaFile = mediaFileRepository.save(mediaFile);
-        logger.info("Media file uploaded: {} by user: {}", originalFileName, username);
+        Set<String> hashes = files.stream()
+                .map(HashPreflightDto::getSha256)
+                .filter(Objects::nonNull)
+                .map(String::toLowerCase)
+                .collect(Collectors.toSet());
 
-        // Trigger face detection for images (async)
-        if (mediaType == MediaFile.MediaType.IMAGE) {
-            faceDetectionService.detectFaces(mediaFile);
+        Map<String, Object[]> existing = new HashMap<>();
+        if (!hashes.isEmpty()) {
+            for (Object[] row : mediaFileRepository.findExistingHashesByOwner(user, hashes)) {
+                existing.putIfAbsent((String) row[0], row);
+            }
         }
 
-        return convertToDto(mediaFile);
+        return files.stream()
+                .map(file -> {
+                    String hash = file.getSha256() != null ? file.getSha256().toLowerCase() : null;
+                    Object[] match = hash != null ? existing.get(hash) : null;
+                    boolean exists = match != null && file.getSize() != null && file.getSize().equals(match[1]);
+                    return HashPreflightDto.builder()
+                            .sha256(hash)
+                            .size(file.getSize())
+                            .exists(exists)
+                            .mediaId(exists ? (Long) match[2] : null)
+                            .build();
+                })
+                .collect(Collectors.toList());
     }
 
     @Transactional(readOnly = true)
@@ -188,6 +231,9 @@ public class MediaFileService {
         mediaFile.setDeletedAt(LocalDateTime.now());
         mediaFileRepository.save(mediaFile);
 
+        // Trashed media keep their stored thumbnails but should not hold cache memory
+        thumbnailService.invalidateCachedThumbnails(mediaFile.getFileHash());
+
         logger.info("Media file soft deleted: {} by user: {}", mediaFile.getFileName(), username);
     }
 
@@ -203,21 +249,51 @@ public class MediaFileService {
         return convertToDtoWithTags(mediaFile, tags);
     }
 
-    private String generateFileHash(byte[] fileBytes) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(fileBytes);
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hash) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) hexString.append('0');
-                hexString.append(hex);
+    /**
+     * Render thumbnails for the current user's videos that have none, typically because
+     * processing failed. Videos still in the pipeline are left to it. Nothing is held open while
+     * rendering; each video's row is updated in a short transaction of its own.
+     */
+    public Map<String, Object> regenerateMissingVideoThumbnails() {
+        String username = SecurityContextHolder.getContext().getAuthentication().getName();
+        User user = userRepository.findByUsername(username)
+                .orElseThrow(() -> new RuntimeException("User not found"));
+
+        List<MediaFile> videosWithoutThumbnails = mediaFileRepository
+                .findByOwnerAndMediaTypeAndThumbnailPathIsNullAndIsDeletedFalse(user, MediaFile.MediaType.VIDEO)
+                .stream()
+                .filter(video -> video.getProcessingStatus() != MediaFile.ProcessingStatus.PENDING
+                        && video.getProcessingStatus() != MediaFile.ProcessingStatus.PROCESSING)
+                .collect(Collectors.toList());
+
+        int successCount = 0;
+        int failCount = 0;
+        String signature = thumbnailService.getRenditionSignature();
+        for (MediaFile video : videosWithoutThumbnails) {
+            try {
+                String thumbnailPath = thumbnailService.regenerateThumbnails(video);
+                String blurHash = thumbnailService.generateBlurHash(video.getFileHash());
+                transactionTemplate.executeWithoutResult(status ->
+                        mediaFileRepository.findById(video.getId()).ifPresent(media -> {
+                            media.setThumbnailPath(thumbnailPath);
+                            media.setBlurHash(blurHash);
+                            media.setThumbnailSignature(signature);
+                            media.setProcessingStatus(MediaFile.ProcessingStatus.READY);
+                            mediaFileRepository.save(media);
+                        }));
+                successCount++;
+                logger.info("Generated thumbnail for video: {}", video.getFileName());
+            } catch (Exception e) {
+                logger.error("Failed to generate thumbnail for video: {}", video.getFileName(), e);
+                failCount++;
             }
-            return hexString.toString();
-        } catch (Exception e) {
-            logger.error("Failed to generate file hash", e);
-            return UUID.randomUUID().toString();
         }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("total", videosWithoutThumbnails.size());
+        result.put("success", successCount);
+        result.put("failed", failCount);
+        return result;
     }
 
     private MediaFile.MediaType determineMediaType(String mimeType) {
@@ -229,27 +305,11 @@ public class MediaFileService {
         throw new RuntimeException("Unsupported media type: " + mimeType);
     }
 
-    private void applyMetadata(MediaFile mediaFile, Map<String, Object> metadata) {
-        if (metadata.containsKey("width")) {
-            mediaFile.setWidth((Integer) metadata.get("width"));
-        }
-        if (metadata.containsKey("height")) {
-            mediaFile.setHeight((Integer) metadata.get("height"));
-        }
-        if (metadata.containsKey("dateTaken")) {
-            mediaFile.setDateTaken((LocalDateTime) metadata.get("dateTaken"));
-        }
-        if (metadata.containsKey("latitude")) {
-            mediaFile.setLatitude((Double) metadata.get("latitude"));
-        }
-        if (metadata.containsKey("longitude")) {
-            mediaFile.setLongitude((Double) metadata.get("longitude"));
-        }
-        if (metadata.containsKey("cameraMake")) {
-            mediaFile.setCameraMake((String) metadata.get("cameraMake"));
-        }
-        if (metadata.containsKey("cameraModel")) {
-            mediaFile.setCameraModel((String) metadata.get("cameraModel"));
+    private void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Failed to delete orphaned original: {}", file, e);
         }
     }
 
@@ -288,49 +348,6 @@ public class MediaFileService {
         return String.format("%.1f %sB", bytes / Math.pow(1024, exp), pre);
     }
 
-    /**
-     * Regenerate thumbnails for videos that are missing them.
-     * This is useful after adding JavaCV support for video thumbnail generation.
-     */
-    @Transactional
-    public Map<String, Object> regenerateMissingVideoThumbnails() {
-        String username = SecurityContextHolder.getContext().getAuthentication().getName();
-        User user = userRepository.findByUsername(username)
-                .orElseThrow(() -> new RuntimeException("User not found"));
-
-        // Find all videos without thumbnails
-        var videosWithoutThumbnails = mediaFileRepository.findByOwnerAndMediaTypeAndThumbnailPathIsNullAndIsDeletedFalse(
-                user, MediaFile.MediaType.VIDEO);
-
-        int successCount = 0;
-        int failCount = 0;
-
-        for (MediaFile video : videosWithoutThumbnails) {
-            try {
-                File videoFile = new File(video.getFilePath());
-                if (videoFile.exists()) {
-                    String thumbnailPath = thumbnailService.generateVideoThumbnail(videoFile, video.getFileHash());
-                    video.setThumbnailPath(thumbnailPath);
-                    mediaFileRepository.save(video);
-                    successCount++;
-                    logger.info("Generated thumbnail for video: {}", video.getFileName());
-                } else {
-                    logger.warn("Video file not found: {}", video.getFilePath());
-                    failCount++;
-                }
-            } catch (Exception e) {
-                logger.error("Failed to generate thumbnail for video: {}", video.getFileName(), e);
-                failCount++;
-            }
-        }
-
-        Map<String, Object> result = new HashMap<>();
-        result.put("total", videosWithoutThumbnails.size());
-        result.put("success", successCount);
-        result.put("failed", failCount);
-        return result;
-    }
-
     public MediaFileDto convertToDto(MediaFile mediaFile) {
         return MediaFileDto.builder()
                 .id(mediaFile.getId())
@@ -343,6 +360,8 @@ public class MediaFileService {
                 .height(mediaFile.getHeight())
                 .duration(mediaFile.getDuration())
                 .thumbnailPath(mediaFile.getThumbnailPath())
+                .blurHash(mediaFile.getBlurHash())
+                .processingStatus(mediaFile.getProcessingStatus())
                 .dateTaken(mediaFile.getDateTaken())
                 .isFavorite(mediaFile.getIsFavorite())
                 .latitude(mediaFile.getLatitude())
@@ -386,6 +405,8 @@ public class MediaFileService {
                 .height(mediaFile.getHeight())
                 .duration(mediaFile.getDuration())
                 .thumbnailPath(mediaFile.getThumbnailPath())
+                .blurHash(mediaFile.getBlurHash())
+                .processingStatus(mediaFile.getProcessingStatus())
                 .dateTaken(mediaFile.getDateTaken())
                 .isFavorite(mediaFile.getIsFavorite())
                 .latitude(mediaFile.getLatitude())
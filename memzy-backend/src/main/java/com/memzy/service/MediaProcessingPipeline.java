@@ -0,0 +1,345 @@
+package com.memzy.service;
+
+import com.memzy.model.MediaFile;
+import com.memzy.repository.MediaFileRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Runs the post-upload work for a media file as three stages - metadata, thumbnails and
+ * face detection - each on its own bounded queue and worker pool. Uploads only need to
+ * store the original and save a PENDING entity; the pipeline moves it to READY (or FAILED).
+ */
+@Service
+public class MediaProcessingPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(MediaProcessingPipeline.class);
+
+    private static final int RECOVERY_BATCH_SIZE = 500;
+
+    @Autowired
+    private MediaFileRepository mediaFileRepository;
+
+    @Autowired
+    private MetadataExtractionService metadataExtractionService;
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
+    @Autowired
+    private FaceDetectionService faceDetectionService;
+
+    @Autowired
+    private VideoSpriteService videoSpriteService;
+
+    @Autowired
+    private VideoPreviewService videoPreviewService;
+
+    @Autowired
+    private FaststartService faststartService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${memzy.processing.metadata.workers:2}")
+    private int metadataWorkers;
+
+    @Value("${memzy.processing.metadata.queue-capacity:500}")
+    private int metadataQueueCapacity;
+
+    @Value("${memzy.processing.thumbnails.workers:4}")
+    private int thumbnailWorkers;
+
+    @Value("${memzy.processing.thumbnails.queue-capacity:200}")
+    private int thumbnailQueueCapacity;
+
+    @Value("${memzy.processing.faces.workers:1}")
+    private int faceWorkers;
+
+    @Value("${memzy.processing.faces.queue-capacity:200}")
+    private int faceQueueCapacity;
+
+    private ThreadPoolExecutor metadataExecutor;
+    private ThreadPoolExecutor thumbnailExecutor;
+    private ThreadPoolExecutor faceExecutor;
+
+    // Media ids currently queued or running in any stage
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void init() {
+        metadataExecutor = createStageExecutor("media-metadata-", metadataWorkers, metadataQueueCapacity);
+        thumbnailExecutor = createStageExecutor("media-thumbnails-", thumbnailWorkers, thumbnailQueueCapacity);
+        faceExecutor = createStageExecutor("media-faces-", faceWorkers, faceQueueCapacity);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        metadataExecutor.shutdownNow();
+        thumbnailExecutor.shutdownNow();
+        faceExecutor.shutdownNow();
+    }
+
+    /**
+     * Queue a freshly stored media file for processing. When called inside a transaction the
+     * file is only queued after commit, so workers never see an uncommitted row.
+     */
+    public void submit(Long mediaFileId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueue(mediaFileId);
+                }
+            });
+        } else {
+            enqueue(mediaFileId);
+        }
+    }
+
+    /**
+     * Media uploaded before the pipeline existed were processed during the upload and have no
+     * status column value; mark them READY once, so every row has a real status.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillProcessingStatus() {
+        Integer updated = transactionTemplate.execute(status ->
+                mediaFileRepository.setProcessingStatusWhereNull(MediaFile.ProcessingStatus.READY));
+        if (updated != null && updated > 0) {
+            logger.info("Marked {} media files from before the processing pipeline as READY", updated);
+        }
+    }
+
+    /**
+     * Pick up media left PENDING because a queue was full, or PROCESSING because the node
+     * stopped halfway through.
+     */
+    @Scheduled(fixedDelay = 60000, initialDelay = 30000)
+    public void resumeUnprocessedMedia() {
+        List<Long> ids = mediaFileRepository.findIdsByProcessingStatusIn(
+                List.of(MediaFile.ProcessingStatus.PENDING, MediaFile.ProcessingStatus.PROCESSING),
+                PageRequest.of(0, RECOVERY_BATCH_SIZE));
+
+        int resumed = 0;
+        for (Long id : ids) {
+            if (!inFlight.contains(id) && enqueue(id)) {
+                resumed++;
+            }
+        }
+        if (resumed > 0) {
+            logger.info("Resumed processing for {} media files", resumed);
+        }
+    }
+
+    public Map<String, Object> getQueueStats() {
+        return Map.of(
+                "inFlight", inFlight.size(),
+                "metadataQueued", metadataExecutor.getQueue().size(),
+                "thumbnailsQueued", thumbnailExecutor.getQueue().size(),
+                "facesQueued", faceExecutor.getQueue().size()
+        );
+    }
+
+    private boolean enqueue(Long mediaFileId) {
+        if (!inFlight.add(mediaFileId)) {
+            return false;
+        }
+        try {
+            metadataExecutor.execute(() -> runMetadataStage(mediaFileId));
+            return true;
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(mediaFileId);
+            logger.warn("Metadata queue full, media {} stays PENDING until the next recovery pass", mediaFileId);
+            return false;
+        }
+    }
+
+    private void runMetadataStage(Long mediaFileId) {
+        try {
+            MediaFile mediaFile = mediaFileRepository.findById(mediaFileId).orElse(null);
+            if (mediaFile == null || Boolean.TRUE.equals(mediaFile.getIsDeleted())) {
+                inFlight.remove(mediaFileId);
+                return;
+            }
+
+            update(mediaFileId, media -> media.setProcessingStatus(MediaFile.ProcessingStatus.PROCESSING));
+
+            File originalFile = new File(mediaFile.getFilePath());
+            Map<String, Object> metadata = mediaFile.getMediaType() == MediaFile.MediaType.VIDEO
+                    ? metadataExtractionService.extractVideoMetadata(originalFile)
+                    : metadataExtractionService.extractImageMetadata(originalFile);
+
+            update(mediaFileId, media -> applyMetadata(media, metadata));
+
+            handOff(thumbnailExecutor, mediaFileId, () -> runThumbnailStage(mediaFileId));
+        } catch (Exception e) {
+            fail(mediaFileId, "metadata", e);
+        }
+    }
+
+    private void runThumbnailStage(Long mediaFileId) {
+        try {
+            // Deleted while queued: no thumbnails, and nothing handed on to the later jobs
+            MediaFile mediaFile = mediaFileRepository.findById(mediaFileId).orElse(null);
+            if (mediaFile == null || Boolean.TRUE.equals(mediaFile.getIsDeleted())) {
+                inFlight.remove(mediaFileId);
+                return;
+            }
+
+            File originalFile = new File(mediaFile.getFilePath());
+            String thumbnailPath;
+            if (mediaFile.getMediaType() == MediaFile.MediaType.VIDEO) {
+                thumbnailPath = thumbnailService.generateVideoThumbnail(originalFile, mediaFile.getFileHash());
+            } else {
+                Map<Integer, String> thumbnails = thumbnailService.generateThumbnails(originalFile, mediaFile.getFileHash());
+                // Use 300px as default thumbnail; any eager size works since clients swap the size in
+                thumbnailPath = thumbnails.getOrDefault(300, thumbnails.values().stream().findFirst().orElse(null));
+            }
+
+            String blurHash = generateBlurHash(mediaFile);
+            String thumbnailSignature = thumbnailService.getRenditionSignature();
+
+            update(mediaFileId, media -> {
+                media.setThumbnailPath(thumbnailPath);
+                media.setBlurHash(blurHash);
+                media.setThumbnailSignature(thumbnailSignature);
+                media.setProcessingStatus(MediaFile.ProcessingStatus.READY);
+            });
+
+            if (mediaFile.getMediaType() == MediaFile.MediaType.IMAGE) {
+                handOff(faceExecutor, mediaFileId, () -> runFaceStage(mediaFileId));
+            } else {
+                // Seek-bar sprites, hover clips and faststart copies are nice-to-haves; they run on
+                // their own low-priority queues
+                videoSpriteService.submit(mediaFile.getFileHash());
+                videoPreviewService.submit(mediaFile.getFileHash());
+                faststartService.submit(Paths.get(mediaFile.getFilePath()));
+                inFlight.remove(mediaFileId);
+            }
+        } catch (Exception e) {
+            fail(mediaFileId, "thumbnail", e);
+        }
+    }
+
+    private void runFaceStage(Long mediaFileId) {
+        try {
+            mediaFileRepository.findById(mediaFileId)
+                    .filter(media -> !Boolean.TRUE.equals(media.getIsDeleted()))
+                    .ifPresent(faceDetectionService::detectFaces);
+        } catch (Exception e) {
+            // Face detection is best effort; the media file is already READY
+            logger.error("Face detection failed for media {}", mediaFileId, e);
+        } finally {
+            inFlight.remove(mediaFileId);
+        }
+    }
+
+    private String generateBlurHash(MediaFile mediaFile) {
+        try {
+            return thumbnailService.generateBlurHash(mediaFile.getFileHash());
+        } catch (Exception e) {
+            // The placeholder is cosmetic; never fail a media file over it
+            logger.warn("Could not compute BlurHash for media {}: {}", mediaFile.getId(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Pass a media file to the next stage, blocking while that stage's queue is full so a slow
+     * stage pushes back on the one before it instead of dropping work.
+     */
+    private void handOff(ThreadPoolExecutor executor, Long mediaFileId, Runnable task) throws InterruptedException {
+        if (executor.isShutdown()) {
+            inFlight.remove(mediaFileId);
+            return;
+        }
+        executor.getQueue().put(task);
+    }
+
+    private void fail(Long mediaFileId, String stage, Exception e) {
+        logger.error("Media {} failed in {} stage", mediaFileId, stage, e);
+        try {
+            update(mediaFileId, media -> media.setProcessingStatus(MediaFile.ProcessingStatus.FAILED));
+        } catch (Exception updateError) {
+            logger.error("Could not mark media {} as FAILED", mediaFileId, updateError);
+        } finally {
+            inFlight.remove(mediaFileId);
+        }
+    }
+
+    /**
+     * Apply a change to the current row in a short transaction of its own, so a stage never
+     * overwrites edits (favorite, delete, ...) made while it was working.
+     */
+    private void update(Long mediaFileId, Consumer<MediaFile> change) {
+        transactionTemplate.executeWithoutResult(status ->
+                mediaFileRepository.findById(mediaFileId).ifPresent(media -> {
+                    change.accept(media);
+                    mediaFileRepository.save(media);
+                }));
+    }
+
+    private ThreadPoolExecutor createStageExecutor(String threadNamePrefix, int workers, int queueCapacity) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                workers, workers, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory(threadNamePrefix),
+                new ThreadPoolExecutor.AbortPolicy());
+        // Tasks handed off between stages go straight into the queue, so workers must already exist
+        executor.prestartAllCoreThreads();
+        return executor;
+    }
+
+    private void applyMetadata(MediaFile mediaFile, Map<String, Object> metadata) {
+        if (metadata.containsKey("width")) {
+            mediaFile.setWidth((Integer) metadata.get("width"));
+        }
+        if (metadata.containsKey("height")) {
+            mediaFile.setHeight((Integer) metadata.get("height"));
+        }
+        if (metadata.containsKey("duration")) {
+            mediaFile.setDuration((Integer) metadata.get("duration"));
+        }
+        if (metadata.containsKey("dateTaken")) {
+            mediaFile.setDateTaken((LocalDateTime) metadata.get("dateTaken"));
+        }
+        if (metadata.containsKey("latitude")) {
+            mediaFile.setLatitude((Double) metadata.get("latitude"));
+        }
+        if (metadata.containsKey("longitude")) {
+            mediaFile.setLongitude((Double) metadata.get("longitude"));
+        }
+        if (metadata.containsKey("cameraMake")) {
+            mediaFile.setCameraMake((String) metadata.get("cameraMake"));
+        }
+        if (metadata.containsKey("cameraModel")) {
+            mediaFile.setCameraModel((String) metadata.get("cameraModel"));
+        }
+    }
+}
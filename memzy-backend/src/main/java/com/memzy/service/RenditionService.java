@@ -0,0 +1,323 @@
+package com.memzy.service;
+
+import com.memzy.model.MediaFile;
+import com.memzy.repository.MediaFileRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import net.coobird.thumbnailator.Thumbnails;
+import net.coobird.thumbnailator.geometry.Positions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders images at arbitrary sizes for clients the fixed thumbnail sizes do not suit: TV
+ * slideshows, high-density grids, album cover crops.
+ *
+ * Requested dimensions are rounded up to an allow-listed size so the number of distinct
+ * renditions stays bounded. Each rendition is scaled from the smallest stored thumbnail that is
+ * large enough, falling back to the original only when none is. Renders run on a bounded pool,
+ * concurrent requests for the same rendition share one render, and results are kept on disk
+ * under a byte budget with least-recently-used eviction.
+ */
+@Service
+public class RenditionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RenditionService.class);
+
+    // Bump when the rendering changes, so clients holding old renditions revalidate
+    private static final int RENDER_VERSION = 1;
+
+    public enum Fit {
+        // Scale to fit inside the box, keeping the whole image
+        CONTAIN,
+        // Scale to fill the box and crop the overflow around the centre
+        COVER
+    }
+
+    @Autowired
+    private MediaFileRepository mediaFileRepository;
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
+    @Autowired
+    private WebpFailureTracker webpFailures;
+
+    @Value("${memzy.media.render.sizes:150,300,600,1080,1200,1440,1920,2160,2560,3840}")
+    private List<Integer> allowedSizes;
+
+    @Value("${memzy.media.render.path:${memzy.storage.thumbnail-path}/renders}")
+    private String cachePath;
+
+    @Value("${memzy.media.render.cache-size:1GB}")
+    private DataSize cacheSize;
+
+    @Value("${memzy.media.render.workers:2}")
+    private int workers;
+
+    @Value("${memzy.media.render.queue-capacity:100}")
+    private int queueCapacity;
+
+    private ThreadPoolExecutor executor;
+
+    // One render per rendition; concurrent requests for it wait on the same future
+    private final Map<String, CompletableFuture<Path>> pendingRenders = new ConcurrentHashMap<>();
+
+    private DiskLruCache cache;
+
+    @PostConstruct
+    public void init() throws IOException {
+        allowedSizes = allowedSizes.stream().sorted().distinct().toList();
+        executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("rendition-"),
+                new ThreadPoolExecutor.AbortPolicy());
+        cache = new DiskLruCache("rendition", Paths.get(cachePath), 1, cacheSize.toBytes());
+        cache.load();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Round a requested dimension up to the nearest allowed size (the largest one if it is
+     * larger than all of them). Zero means the dimension is not constrained.
+     */
+    public int clampSize(Integer requested) {
+        if (requested == null || requested <= 0) {
+            return 0;
+        }
+        for (int size : allowedSizes) {
+            if (size >= requested) {
+                return size;
+            }
+        }
+        return allowedSizes.get(allowedSizes.size() - 1);
+    }
+
+    /**
+     * File name a rendition is cached under; also its entity tag, since renditions are derived
+     * from the content hash alone.
+     */
+    public String getRenditionName(String fileHash, int width, int height, Fit fit,
+                                   ThumbnailService.ThumbnailFormat format) {
+        if (fit == Fit.COVER) {
+            // A crop needs both dimensions; a single one means a square
+            int side = Math.max(width, height);
+            width = width > 0 ? width : side;
+            height = height > 0 ? height : side;
+        }
+        if (format == ThumbnailService.ThumbnailFormat.WEBP && !thumbnailService.isWebpEnabled()) {
+            format = ThumbnailService.ThumbnailFormat.JPEG;
+        }
+        String name = fileHash + "_" + width + "x" + height + "_" + fit.name().toLowerCase() + "_v" + RENDER_VERSION;
+        if (format == ThumbnailService.ThumbnailFormat.WEBP
+                && webpFailures.hasFailed(name + "." + format.getExtension())) {
+            format = ThumbnailService.ThumbnailFormat.JPEG;
+        }
+        return name + "." + format.getExtension();
+    }
+
+    /**
+     * The cached rendition, rendering it first if needed. Dimensions must already be clamped and
+     * at least one of them set. Falls back to JPEG when WebP is disabled or cannot be encoded.
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the render queue is full
+     */
+    public Path getOrRender(String fileHash, int width, int height, Fit fit,
+                            ThumbnailService.ThumbnailFormat format) throws IOException {
+        if (width <= 0 && height <= 0) {
+            throw new IllegalArgumentException("Width or height is required");
+        }
+        if (fit == Fit.COVER) {
+            int side = Math.max(width, height);
+            width = width > 0 ? width : side;
+            height = height > 0 ? height : side;
+        }
+
+        Path target = getCachePath(getRenditionName(fileHash, width, height, fit, format));
+        Path cached = findCached(target);
+        if (cached != null) {
+            return cached;
+        }
+
+        String key = target.getFileName().toString();
+        CompletableFuture<Path> render = new CompletableFuture<>();
+        CompletableFuture<Path> pending = pendingRenders.putIfAbsent(key, render);
+        if (pending != null) {
+            return await(pending);
+        }
+
+        int boxWidth = width;
+        int boxHeight = height;
+        try {
+            executor.execute(() -> {
+                try {
+                    render.complete(render(fileHash, boxWidth, boxHeight, fit, target));
+                } catch (Throwable e) {
+                    render.completeExceptionally(e);
+                } finally {
+                    pendingRenders.remove(key, render);
+                }
+            });
+        } catch (RuntimeException e) {
+            pendingRenders.remove(key, render);
+            render.completeExceptionally(e);
+            throw e;
+        }
+        return await(render);
+    }
+
+    private Path render(String fileHash, int width, int height, Fit fit, Path target) throws IOException {
+        // A request that waited in the queue may find another one already rendered it
+        Path cached = findCached(target);
+        if (cached != null) {
+            return cached;
+        }
+        long startedAt = System.currentTimeMillis();
+
+        MediaFile mediaFile = mediaFileRepository.findFirstByFileHash(fileHash)
+                .orElseThrow(() -> new NoSuchElementException("No media file for hash: " + fileHash));
+
+        int sourceEdge = getSourceEdge(mediaFile, width, height, fit);
+        BufferedImage source = thumbnailService.readRenditionAtLeast(fileHash, sourceEdge);
+        boolean fromOriginal = source == null;
+        if (fromOriginal) {
+            source = thumbnailService.decodeOriginal(mediaFile, sourceEdge);
+        }
+
+        BufferedImage image = fit == Fit.COVER ? cover(source, width, height) : contain(source, width, height);
+
+        byte[] data = null;
+        if (ThumbnailService.ThumbnailFormat.of(target.getFileName().toString()) == ThumbnailService.ThumbnailFormat.WEBP) {
+            data = thumbnailService.encodeWebpQuietly(image, target.getFileName().toString());
+            if (data == null) {
+                webpFailures.recordFailure(target.getFileName().toString());
+                target = getCachePath(getRenditionName(fileHash, width, height, fit, ThumbnailService.ThumbnailFormat.JPEG));
+            }
+        }
+        if (data == null) {
+            data = thumbnailService.encodeJpeg(image);
+        }
+        store(target, data);
+
+        logger.debug("Rendered {} ({}x{}) from the {} in {}ms", target.getFileName(), image.getWidth(), image.getHeight(),
+                fromOriginal ? "original" : "stored thumbnails", System.currentTimeMillis() - startedAt);
+        return target;
+    }
+
+    /**
+     * Longest edge the source needs so the rendition is not upscaled from a smaller image.
+     * Stored dimensions may predate EXIF rotation, so both orientations are considered.
+     */
+    private int getSourceEdge(MediaFile mediaFile, int width, int height, Fit fit) {
+        Integer mediaWidth = mediaFile.getWidth();
+        Integer mediaHeight = mediaFile.getHeight();
+        if (mediaWidth == null || mediaHeight == null || mediaWidth <= 0 || mediaHeight <= 0) {
+            // Unknown aspect ratio: a crop may need more than the box's longest edge
+            return fit == Fit.COVER ? allowedSizes.get(allowedSizes.size() - 1) : Math.max(width, height);
+        }
+        return Math.max(scaledEdge(mediaWidth, mediaHeight, width, height, fit),
+                scaledEdge(mediaHeight, mediaWidth, width, height, fit));
+    }
+
+    private static int scaledEdge(int sourceWidth, int sourceHeight, int width, int height, Fit fit) {
+        double scale = fit == Fit.COVER
+                ? Math.max((double) width / sourceWidth, (double) height / sourceHeight)
+                : Math.min(width > 0 ? (double) width / sourceWidth : Double.MAX_VALUE,
+                        height > 0 ? (double) height / sourceHeight : Double.MAX_VALUE);
+        return (int) Math.ceil(Math.min(1.0, scale) * Math.max(sourceWidth, sourceHeight));
+    }
+
+    private static BufferedImage contain(BufferedImage source, int width, int height) throws IOException {
+        double scale = Math.min(width > 0 ? (double) width / source.getWidth() : Double.MAX_VALUE,
+                height > 0 ? (double) height / source.getHeight() : Double.MAX_VALUE);
+        if (scale >= 1.0) {
+            return source;
+        }
+        return Thumbnails.of(source)
+                .forceSize(Math.max(1, (int) Math.round(source.getWidth() * scale)),
+                        Math.max(1, (int) Math.round(source.getHeight() * scale)))
+                .asBufferedImage();
+    }
+
+    private static BufferedImage cover(BufferedImage source, int width, int height) throws IOException {
+        double scale = Math.max((double) width / source.getWidth(), (double) height / source.getHeight());
+        BufferedImage scaled = source;
+        if (scale < 1.0) {
+            scaled = Thumbnails.of(source)
+                    .forceSize(Math.max(width, (int) Math.round(source.getWidth() * scale)),
+                            Math.max(height, (int) Math.round(source.getHeight() * scale)))
+                    .asBufferedImage();
+        }
+        // Never upscaled, so a small source gives a smaller crop of the same aspect ratio
+        double aspect = (double) width / height;
+        int cropWidth = Math.min(scaled.getWidth(), (int) Math.round(scaled.getHeight() * aspect));
+        int cropHeight = Math.min(scaled.getHeight(), (int) Math.round(cropWidth / aspect));
+        return Thumbnails.of(scaled)
+                .sourceRegion(Positions.CENTER, Math.max(1, cropWidth), Math.max(1, cropHeight))
+                .forceSize(Math.max(1, cropWidth), Math.max(1, cropHeight))
+                .asBufferedImage();
+    }
+
+    private Path findCached(Path target) {
+        return cache.contains(target) ? target : null;
+    }
+
+    private void store(Path target, byte[] data) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path partial = target.resolveSibling(target.getFileName() + "." + UUID.randomUUID() + ".part");
+        try {
+            Files.write(partial, data);
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+        cache.add(target, data.length);
+    }
+
+    private Path await(CompletableFuture<Path> render) throws IOException {
+        try {
+            return render.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException("Rendition failed", e.getCause());
+        }
+    }
+
+    /**
+     * {@code renders/ab/<name>}, sharded by content hash like the thumbnails.
+     */
+    private Path getCachePath(String renditionName) {
+        return ShardedPaths.resolve(Paths.get(cachePath), renditionName, renditionName);
+    }
+}
@@ -0,0 +1,527 @@
+package com.memzy.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Packs renditions into large append-only segment files instead of one file per thumbnail.
+ *
+ * Each record is {@code magic, flags, keyLength, dataLength, crc32, key, data}, where the key is
+ * the rendition's file name. An in-memory index maps a 64-bit digest of the key to the record's
+ * segment and offset; it is rebuilt at startup by walking the record headers, so there is no
+ * separate index file to keep consistent. Reads slice a read-only memory mapping of the segment.
+ *
+ * Deletes and replacements append a tombstone or a newer record and leave the old bytes as
+ * garbage; {@link #compact()} rewrites the live records of mostly-dead segments and removes them.
+ */
+@Component
+@ConditionalOnProperty(name = "memzy.media.thumbnail-store", havingValue = "segments")
+public class SegmentThumbnailStore implements ThumbnailStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentThumbnailStore.class);
+
+    private static final int RECORD_MAGIC = 0x4D5A5448; // "MZTH"
+    private static final int HEADER_SIZE = 4 + 1 + 2 + 4 + 4;
+    private static final byte FLAG_TOMBSTONE = 1;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+
+    // A single mapping per segment, so segments must stay below 2 GB
+    private static final long MAX_SEGMENT_SIZE = 1024L * 1024 * 1024;
+
+    private static final int OFFSET_BITS = 40;
+
+    @Value("${memzy.media.segment-store.path:${memzy.storage.thumbnail-path}/segments}")
+    private String segmentPath;
+
+    @Value("${memzy.media.segment-store.segment-size:256MB}")
+    private DataSize segmentSize;
+
+    // Compact a sealed segment once this fraction of it is garbage
+    @Value("${memzy.media.segment-store.compaction-threshold:0.5}")
+    private double compactionThreshold;
+
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+
+    // Key digest -> (segment id << OFFSET_BITS | record offset)
+    private final ConcurrentHashMap<Long, Long> index = new ConcurrentHashMap<>();
+
+    // Serialises appends and the index updates that go with them
+    private final Object appendLock = new Object();
+
+    // Written under appendLock; read without it by compact() to skip the active segment early
+    private volatile Segment activeSegment;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (segmentSize.toBytes() > MAX_SEGMENT_SIZE) {
+            throw new IllegalStateException("memzy.media.segment-store.segment-size must be at most 1GB");
+        }
+        Path directory = Paths.get(segmentPath);
+        Files.createDirectories(directory);
+
+        List<Integer> ids = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                ids.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        ids.sort(null);
+
+        for (int i = 0; i < ids.size(); i++) {
+            boolean last = i == ids.size() - 1;
+            Segment segment = Segment.open(segmentFile(ids.get(i)), ids.get(i), last ? segmentSize.toBytes() : 0);
+            segments.put(segment.id, segment);
+            loadSegment(segment, last);
+        }
+
+        Segment last = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        if (last != null && last.size < segmentSize.toBytes()) {
+            activeSegment = last;
+        } else {
+            if (last != null) {
+                last.seal();
+            }
+            activeSegment = createSegment();
+        }
+        logger.info("Thumbnail segment store: {} renditions in {} segments", index.size(), segments.size());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        synchronized (appendLock) {
+            for (Segment segment : segments.values()) {
+                try {
+                    if (segment == activeSegment) {
+                        segment.seal();
+                    }
+                    segment.channel.close();
+                } catch (IOException e) {
+                    logger.warn("Could not close thumbnail segment {}", segment.path, e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Resource get(String fileHash, int size, ThumbnailService.ThumbnailFormat format) throws IOException {
+        String key = ThumbnailStore.fileName(fileHash, size, format);
+        long digest = digest(key);
+
+        // A second attempt covers a record moved by compaction between the lookup and the read
+        for (int attempt = 0; attempt < 2; attempt++) {
+            Long location = index.get(digest);
+            if (location == null) {
+                return null;
+            }
+            Segment segment = segments.get(segmentId(location));
+            if (segment == null) {
+                continue;
+            }
+
+            try {
+                long offset = recordOffset(location);
+                ByteBuffer header = segment.slice(offset, HEADER_SIZE);
+                int keyLength = Short.toUnsignedInt(header.getShort(5));
+                int dataLength = header.getInt(7);
+                String storedKey = StandardCharsets.UTF_8.decode(segment.slice(offset + HEADER_SIZE, keyLength)).toString();
+                if (!storedKey.equals(key)) {
+                    return null; // digest collision with another rendition
+                }
+                return new ByteBufferResource(key, segment.slice(offset + HEADER_SIZE + keyLength, dataLength));
+            } catch (ClosedChannelException e) {
+                // Compacted away before it was ever mapped
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String put(String fileHash, int size, ThumbnailService.ThumbnailFormat format, byte[] data) throws IOException {
+        String key = ThumbnailStore.fileName(fileHash, size, format);
+        ByteBuffer record = encodeRecord(key, data, false);
+
+        synchronized (appendLock) {
+            long location = append(record);
+            markDead(index.put(digest(key), location));
+        }
+        return getPath(fileHash, size, format);
+    }
+
+    /**
+     * Store a rendition unless one is already stored under its key, which is then newer than
+     * {@code data}. Returns whether it was stored.
+     */
+    public boolean putIfAbsent(String fileHash, int size, ThumbnailService.ThumbnailFormat format, byte[] data)
+            throws IOException {
+        String key = ThumbnailStore.fileName(fileHash, size, format);
+        ByteBuffer record = encodeRecord(key, data, false);
+
+        synchronized (appendLock) {
+            long digest = digest(key);
+            if (index.containsKey(digest)) {
+                return false;
+            }
+            index.put(digest, append(record));
+        }
+        return true;
+    }
+
+    /**
+     * Force the records appended so far to disk. Sealed segments were forced when sealed.
+     */
+    public void sync() throws IOException {
+        synchronized (appendLock) {
+            activeSegment.channel.force(true);
+        }
+    }
+
+    /**
+     * The path {@link #put} reports for a rendition.
+     */
+    public String getPath(String fileHash, int size, ThumbnailService.ThumbnailFormat format) {
+        return Paths.get(segmentPath, ThumbnailStore.fileName(fileHash, size, format)).toString();
+    }
+
+    @Override
+    public void delete(String fileHash, int size, ThumbnailService.ThumbnailFormat format) throws IOException {
+        String key = ThumbnailStore.fileName(fileHash, size, format);
+
+        synchronized (appendLock) {
+            Long previous = index.remove(digest(key));
+            if (previous == null) {
+                return;
+            }
+            ByteBuffer tombstone = encodeRecord(key, new byte[0], true);
+            int tombstoneLength = tombstone.remaining();
+            long location = append(tombstone);
+            markDead(previous);
+            segments.get(segmentId(location)).deadBytes.addAndGet(tombstoneLength);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        long totalBytes = 0;
+        long deadBytes = 0;
+        for (Segment segment : segments.values()) {
+            totalBytes += segment.size;
+            deadBytes += segment.deadBytes.get();
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("renditions", index.size());
+        stats.put("segments", segments.size());
+        stats.put("totalBytes", totalBytes);
+        stats.put("deadBytes", deadBytes);
+        return stats;
+    }
+
+    /**
+     * Rewrite the live records of sealed segments that are mostly garbage, then delete them.
+     */
+    @Scheduled(fixedDelayString = "${memzy.media.segment-store.compaction-interval-ms:3600000}", initialDelay = 600000)
+    public void compact() {
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            if (segment == activeSegment || segment.size == 0) {
+                continue;
+            }
+            if ((double) segment.deadBytes.get() / segment.size < compactionThreshold) {
+                continue;
+            }
+            try {
+                compactSegment(segment);
+            } catch (IOException e) {
+                logger.error("Failed to compact thumbnail segment {}", segment.path, e);
+            }
+        }
+    }
+
+    private void compactSegment(Segment segment) throws IOException {
+        // compact() may have seen activeSegment just before a rollover. A sealed segment is never
+        // active again, so once this check passes nothing else appends to it.
+        synchronized (appendLock) {
+            if (segment == activeSegment) {
+                return;
+            }
+        }
+
+        // Tombstones only matter while an older segment may still hold the record they delete
+        boolean olderSegmentsExist = segments.firstKey() < segment.id;
+        long moved = 0;
+
+        long position = 0;
+        while (position < segment.size) {
+            ByteBuffer header = segment.slice(position, HEADER_SIZE);
+            boolean tombstone = (header.get(4) & FLAG_TOMBSTONE) != 0;
+            int keyLength = Short.toUnsignedInt(header.getShort(5));
+            int dataLength = header.getInt(7);
+            int recordLength = HEADER_SIZE + keyLength + dataLength;
+            String key = StandardCharsets.UTF_8.decode(segment.slice(position + HEADER_SIZE, keyLength)).toString();
+            long digest = digest(key);
+            long location = location(segment.id, position);
+
+            synchronized (appendLock) {
+                if (tombstone) {
+                    if (olderSegmentsExist && !index.containsKey(digest)) {
+                        ByteBuffer copy = encodeRecord(key, new byte[0], true);
+                        int copyLength = copy.remaining();
+                        long newLocation = append(copy);
+                        segments.get(segmentId(newLocation)).deadBytes.addAndGet(copyLength);
+                    }
+                } else if (Objects.equals(index.get(digest), location)) {
+                    ByteBuffer copy = ByteBuffer.allocate(recordLength);
+                    copy.put(segment.slice(position, recordLength)).flip();
+                    index.put(digest, append(copy));
+                    moved++;
+                }
+            }
+            position += recordLength;
+        }
+
+        synchronized (appendLock) {
+            // The moved records must be on disk before the only other copy of them goes
+            activeSegment.channel.force(true);
+            segments.remove(segment.id);
+            segment.channel.close();
+        }
+        // Readers still holding a slice keep a valid mapping after the file is gone
+        Files.delete(segment.path);
+        logger.info("Compacted thumbnail segment {}: {} live renditions moved", segment.path.getFileName(), moved);
+    }
+
+    /**
+     * Rebuild the index from a segment's record headers. A torn record at the end of the last
+     * segment (crash while appending) and the unused space mapped past its end are truncated away.
+     */
+    private void loadSegment(Segment segment, boolean last) throws IOException {
+        long position = 0;
+        while (position + HEADER_SIZE <= segment.size) {
+            ByteBuffer header = segment.slice(position, HEADER_SIZE);
+            int keyLength = Short.toUnsignedInt(header.getShort(5));
+            int dataLength = header.getInt(7);
+            long recordLength = (long) HEADER_SIZE + keyLength + dataLength;
+            boolean valid = header.getInt(0) == RECORD_MAGIC && dataLength >= 0 && position + recordLength <= segment.size;
+            if (valid && last) {
+                CRC32 crc = new CRC32();
+                crc.update(segment.slice(position + HEADER_SIZE + keyLength, dataLength));
+                valid = (int) crc.getValue() == header.getInt(11);
+            }
+            if (!valid) {
+                break;
+            }
+
+            String key = StandardCharsets.UTF_8.decode(segment.slice(position + HEADER_SIZE, keyLength)).toString();
+            long digest = digest(key);
+            if ((header.get(4) & FLAG_TOMBSTONE) != 0) {
+                markDead(index.remove(digest));
+                segment.deadBytes.addAndGet(recordLength);
+            } else {
+                markDead(index.put(digest, location(segment.id, position)));
+            }
+            position += recordLength;
+        }
+
+        if (position < segment.size) {
+            if (last) {
+                if (!isZeroFilled(segment, position)) {
+                    logger.warn("Truncating {} bytes of incomplete records from {}", segment.size - position, segment.path);
+                }
+                segment.channel.truncate(position);
+                segment.size = position;
+            } else {
+                logger.error("Thumbnail segment {} is corrupt after offset {}; later records are ignored",
+                        segment.path, position);
+            }
+        }
+    }
+
+    /**
+     * Append a record to the active segment, rolling over to a new one when it is full. Callers
+     * hold {@link #appendLock}. Returns the record's location.
+     */
+    private long append(ByteBuffer record) throws IOException {
+        Segment segment = activeSegment;
+        if (segment.size > 0 && segment.size + record.remaining() > segmentSize.toBytes()) {
+            segment.seal();
+            segment = createSegment();
+            activeSegment = segment;
+        }
+
+        long offset = segment.size;
+        long position = offset;
+        while (record.hasRemaining()) {
+            position += segment.channel.write(record, position);
+        }
+        segment.size = position;
+        return location(segment.id, offset);
+    }
+
+    private static boolean isZeroFilled(Segment segment, long from) throws IOException {
+        for (long position = from; position < segment.size; position += Integer.MAX_VALUE) {
+            ByteBuffer tail = segment.slice(position, (int) Math.min(Integer.MAX_VALUE, segment.size - position));
+            while (tail.hasRemaining()) {
+                if (tail.get() != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void markDead(Long location) throws IOException {
+        if (location == null) {
+            return;
+        }
+        Segment segment = segments.get(segmentId(location));
+        if (segment == null) {
+            return;
+        }
+        ByteBuffer header = segment.slice(recordOffset(location), HEADER_SIZE);
+        segment.deadBytes.addAndGet(HEADER_SIZE + Short.toUnsignedInt(header.getShort(5)) + header.getInt(7));
+    }
+
+    private Segment createSegment() throws IOException {
+        int id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        Segment segment = Segment.open(segmentFile(id), id, segmentSize.toBytes());
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private Path segmentFile(int id) {
+        return Paths.get(segmentPath, String.format("%s%06d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    private static ByteBuffer encodeRecord(String key, byte[] data, boolean tombstone) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + keyBytes.length + data.length);
+        record.putInt(RECORD_MAGIC)
+                .put(tombstone ? FLAG_TOMBSTONE : 0)
+                .putShort((short) keyBytes.length)
+                .putInt(data.length)
+                .putInt((int) crc.getValue())
+                .put(keyBytes)
+                .put(data)
+                .flip();
+        return record;
+    }
+
+    private static long location(int segmentId, long offset) {
+        return ((long) segmentId << OFFSET_BITS) | offset;
+    }
+
+    private static int segmentId(long location) {
+        return (int) (location >>> OFFSET_BITS);
+    }
+
+    private static long recordOffset(long location) {
+        return location & ((1L << OFFSET_BITS) - 1);
+    }
+
+    /**
+     * 64-bit FNV-1a. Collisions are caught by comparing the key stored in the record.
+     */
+    private static long digest(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static final class Segment {
+        private final int id;
+        private final Path path;
+        private final FileChannel channel;
+        private final AtomicLong deadBytes = new AtomicLong();
+        // Bytes to map up front so appends stay inside the mapping; 0 once sealed
+        private long capacity;
+        private volatile long size;
+        private volatile MappedByteBuffer mapped;
+
+        private Segment(int id, Path path, FileChannel channel, long capacity) throws IOException {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.capacity = capacity;
+            this.size = channel.size();
+        }
+
+        /**
+         * Open a segment; a non-zero {@code capacity} opens it for appending, up to that size.
+         */
+        static Segment open(Path path, int id, long capacity) throws IOException {
+            FileChannel channel = capacity > 0
+                    ? FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                    : FileChannel.open(path, StandardOpenOption.READ);
+            return new Segment(id, path, channel, capacity);
+        }
+
+        /**
+         * A read-only view of {@code length} bytes at {@code offset}. The active segment is
+         * mapped at its full capacity once, so reading back fresh appends needs no new mapping.
+         */
+        ByteBuffer slice(long offset, int length) throws IOException {
+            MappedByteBuffer current = mapped;
+            if (current == null || offset + length > current.capacity()) {
+                current = remap(offset + length);
+            }
+            return current.slice((int) offset, length).asReadOnlyBuffer();
+        }
+
+        /**
+         * Cut the space reserved for the mapping off the end and flush. Sealed segments are never
+         * written again, so this is their only fsync.
+         */
+        synchronized void seal() throws IOException {
+            capacity = 0;
+            channel.truncate(size);
+            channel.force(true);
+        }
+
+        private synchronized MappedByteBuffer remap(long required) throws IOException {
+            if (mapped == null || mapped.capacity() < required) {
+                if (required > size) {
+                    throw new IOException("Read past the end of thumbnail segment " + path);
+                }
+                // Mapping past the end grows the file (sparsely) to the segment capacity; the
+                // unused tail is cut off again when the segment is sealed
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.max(size, capacity));
+            }
+            return mapped;
+        }
+    }
+}
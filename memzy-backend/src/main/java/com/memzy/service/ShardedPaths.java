@@ -0,0 +1,22 @@
+package com.memzy.service;
+
+import java.nio.file.Path;
+
+/**
+ * Layout of the per-file caches (previews, sprites, renders, faststart copies, HLS segments):
+ * one directory level named after the first two characters of the key, so no directory holds
+ * more than a small share of the files.
+ */
+final class ShardedPaths {
+
+    private ShardedPaths() {
+    }
+
+    /**
+     * {@code <base>/ab/<name>} for key {@code ab...}.
+     */
+    static Path resolve(Path base, String key, String name) {
+        String shard = key.length() >= 2 ? key.substring(0, 2) : "_";
+        return base.resolve(shard).resolve(name);
+    }
+}
@@ -0,0 +1,281 @@
+package com.memzy.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded cache of encoded thumbnails, so the dashboard's hot grid thumbnails are served
+ * without touching the disk.
+ *
+ * Eviction follows W-TinyLFU: new entries land in a small LRU window; entries leaving the window
+ * only displace the main region's LRU victim if a frequency sketch says they are requested more
+ * often. The main region is a segmented LRU, so a thumbnail has to be hit twice to reach the
+ * protected segment. This keeps a one-off scroll through an old album from flushing the
+ * thumbnails everybody loads every day.
+ *
+ * Entries are weighed by their size in bytes and can be kept off the heap.
+ */
+@Component
+public class ThumbnailCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailCache.class);
+
+    private static final double WINDOW_FRACTION = 0.01;
+    private static final double PROTECTED_FRACTION = 0.8;
+
+    // Used to size the frequency sketch from the byte budget
+    private static final int TYPICAL_THUMBNAIL_BYTES = 16 * 1024;
+
+    @Value("${memzy.media.thumbnail-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${memzy.media.thumbnail-cache.max-size:64MB}")
+    private DataSize maxSize;
+
+    // Direct buffers keep cached bytes out of the heap the GC has to scan
+    @Value("${memzy.media.thumbnail-cache.off-heap:false}")
+    private boolean offHeap;
+
+    private long windowCapacity;
+    private long protectedCapacity;
+    private long mainCapacity;
+
+    // All three in LRU order, least recently used first
+    private final LinkedHashMap<String, CachedThumbnail> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, CachedThumbnail> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, CachedThumbnail> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long windowBytes;
+    private long probationBytes;
+    private long protectedBytes;
+
+    private FrequencySketch sketch;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long rejections;
+
+    @PostConstruct
+    public void init() {
+        long capacity = maxSize.toBytes();
+        windowCapacity = Math.max(1, (long) (capacity * WINDOW_FRACTION));
+        mainCapacity = capacity - windowCapacity;
+        protectedCapacity = (long) (mainCapacity * PROTECTED_FRACTION);
+        sketch = new FrequencySketch(Math.max(64, capacity / TYPICAL_THUMBNAIL_BYTES));
+        if (enabled) {
+            logger.info("Thumbnail cache: {} {}", maxSize, offHeap ? "off-heap" : "on-heap");
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * The cached thumbnail for {@code key}, or null. Its file name may differ from the key when a
+     * JPEG was cached as the fallback for a WebP request.
+     */
+    public synchronized Resource get(String key) {
+        if (!enabled) {
+            return null;
+        }
+        sketch.increment(key.hashCode());
+
+        CachedThumbnail thumbnail = window.get(key);
+        if (thumbnail == null) {
+            thumbnail = protectedSegment.get(key);
+        }
+        if (thumbnail == null) {
+            thumbnail = probation.remove(key);
+            if (thumbnail != null) {
+                probationBytes -= thumbnail.weight();
+                promote(key, thumbnail);
+            }
+        }
+
+        if (thumbnail == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return new ByteBufferResource(thumbnail.fileName, thumbnail.data);
+    }
+
+    /**
+     * Cache a thumbnail's bytes under {@code key}. A thumbnail larger than the window goes
+     * straight to admission; only one larger than the main region is not cached.
+     */
+    public synchronized void put(String key, String fileName, byte[] bytes) {
+        if (!enabled || bytes.length > mainCapacity) {
+            return;
+        }
+        remove(key);
+
+        ByteBuffer data;
+        if (offHeap) {
+            data = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+        } else {
+            data = ByteBuffer.wrap(bytes);
+        }
+        window.put(key, new CachedThumbnail(fileName, data));
+        windowBytes += bytes.length;
+
+        while (windowBytes > windowCapacity) {
+            Iterator<Map.Entry<String, CachedThumbnail>> eldest = window.entrySet().iterator();
+            Map.Entry<String, CachedThumbnail> candidate = eldest.next();
+            eldest.remove();
+            windowBytes -= candidate.getValue().weight();
+            admit(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    public synchronized void invalidate(String key) {
+        remove(key);
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        long requests = hits + misses;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("offHeap", offHeap);
+        stats.put("maxBytes", maxSize.toBytes());
+        stats.put("bytes", windowBytes + probationBytes + protectedBytes);
+        stats.put("entries", window.size() + probation.size() + protectedSegment.size());
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("hitRate", requests == 0 ? 0.0 : (double) hits / requests);
+        stats.put("evictions", evictions);
+        stats.put("rejections", rejections);
+        return stats;
+    }
+
+    /**
+     * A candidate leaving the window enters probation if there is room, or if it is more
+     * frequent than every main-region victim it would have to displace.
+     */
+    private void admit(String key, CachedThumbnail candidate) {
+        int candidateFrequency = sketch.frequency(key.hashCode());
+        while (probationBytes + protectedBytes + candidate.weight() > mainCapacity) {
+            LinkedHashMap<String, CachedThumbnail> victims = probation.isEmpty() ? protectedSegment : probation;
+            Map.Entry<String, CachedThumbnail> victim = victims.entrySet().iterator().next();
+            if (sketch.frequency(victim.getKey().hashCode()) >= candidateFrequency) {
+                rejections++;
+                return;
+            }
+            victims.remove(victim.getKey());
+            if (victims == probation) {
+                probationBytes -= victim.getValue().weight();
+            } else {
+                protectedBytes -= victim.getValue().weight();
+            }
+            evictions++;
+        }
+        probation.put(key, candidate);
+        probationBytes += candidate.weight();
+    }
+
+    /**
+     * Move a probation entry that was hit again into the protected segment, demoting the
+     * protected segment's LRU entries back to probation when it is full.
+     */
+    private void promote(String key, CachedThumbnail thumbnail) {
+        protectedSegment.put(key, thumbnail);
+        protectedBytes += thumbnail.weight();
+        while (protectedBytes > protectedCapacity && protectedSegment.size() > 1) {
+            Iterator<Map.Entry<String, CachedThumbnail>> eldest = protectedSegment.entrySet().iterator();
+            Map.Entry<String, CachedThumbnail> demoted = eldest.next();
+            eldest.remove();
+            protectedBytes -= demoted.getValue().weight();
+            probation.put(demoted.getKey(), demoted.getValue());
+            probationBytes += demoted.getValue().weight();
+        }
+    }
+
+    private void remove(String key) {
+        CachedThumbnail removed = window.remove(key);
+        if (removed != null) {
+            windowBytes -= removed.weight();
+        }
+        removed = probation.remove(key);
+        if (removed != null) {
+            probationBytes -= removed.weight();
+        }
+        removed = protectedSegment.remove(key);
+        if (removed != null) {
+            protectedBytes -= removed.weight();
+        }
+    }
+
+    private record CachedThumbnail(String fileName, ByteBuffer data) {
+        int weight() {
+            return data.capacity();
+        }
+    }
+
+    /**
+     * Count-min sketch of recent request frequency with four 4-bit counters per key. Counters
+     * are halved once the sample limit is reached, so popularity fades over time.
+     */
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = {
+                0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int counterMask;
+        private final long sampleLimit;
+        private long samples;
+
+        FrequencySketch(long expectedEntries) {
+            int counters = Integer.highestOneBit((int) Math.min(1 << 26, expectedEntries * 4 - 1)) << 1;
+            table = new long[Math.max(1, counters / 16)];
+            counterMask = table.length * 16 - 1;
+            sampleLimit = expectedEntries * 10;
+        }
+
+        void increment(int hash) {
+            boolean incremented = false;
+            for (long seed : SEEDS) {
+                int counter = indexOf(hash, seed);
+                int slot = counter >>> 4;
+                int shift = (counter & 15) << 2;
+                if (((table[slot] >>> shift) & 0xf) < 15) {
+                    table[slot] += 1L << shift;
+                    incremented = true;
+                }
+            }
+            if (incremented && ++samples >= sampleLimit) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                samples /= 2;
+            }
+        }
+
+        int frequency(int hash) {
+            int frequency = 15;
+            for (long seed : SEEDS) {
+                int counter = indexOf(hash, seed);
+                frequency = Math.min(frequency, (int) ((table[counter >>> 4] >>> ((counter & 15) << 2)) & 0xf));
+            }
+            return frequency;
+        }
+
+        private int indexOf(int hash, long seed) {
+            long mixed = (hash + seed) * seed;
+            mixed ^= mixed >>> 32;
+            return (int) mixed & counterMask;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.memzy.service;
+
+import com.memzy.repository.MediaFileRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Moves thumbnails from the flat {@code <size>/<hash>_<size>.<ext>} layout into the sharded one
+ * while the application keeps serving. ThumbnailService reads both layouts, and each move is a
+ * rename within the same file system, so readers see the file in one place or the other.
+ *
+ * With the segment store enabled, it instead packs every thumbnail file, in either layout, into
+ * the segments and deletes the file. ThumbnailService looks in the segments first, so a file is
+ * only deleted once its packed copy can be served.
+ */
+@Service
+public class ThumbnailLayoutMigrationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailLayoutMigrationService.class);
+
+    private static final Pattern THUMBNAIL_FILE_NAME = Pattern.compile("([0-9a-fA-F]{4,})_(\\d+)\\.(jpg|webp)");
+
+    private static final int DB_UPDATE_BATCH_SIZE = 500;
+
+    private static final int PROGRESS_LOG_INTERVAL = 10000;
+
+    @Autowired
+    private FileThumbnailStore fileThumbnailStore;
+
+    @Autowired(required = false)
+    private SegmentThumbnailStore segmentThumbnailStore;
+
+    @Autowired
+    private MediaFileRepository mediaFileRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${memzy.storage.thumbnail-path}")
+    private String thumbnailBasePath;
+
+    @Value("${memzy.media.thumbnail-sizes}")
+    private List<Integer> thumbnailSizes;
+
+    @Value("${memzy.media.thumbnail-migration.enabled:true}")
+    private boolean migrateOnStartup;
+
+    private ExecutorService executor;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicLong movedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private volatile LocalDateTime startedAt;
+    private volatile LocalDateTime finishedAt;
+
+    @PostConstruct
+    public void init() {
+        executor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("thumbnail-migration-"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (migrateOnStartup) {
+            start();
+        }
+    }
+
+    /**
+     * Start a migration pass in the background. Returns false if one is already running.
+     */
+    public boolean start() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        movedCount.set(0);
+        failedCount.set(0);
+        startedAt = LocalDateTime.now();
+        finishedAt = null;
+        executor.execute(this::migrate);
+        return true;
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("running", running.get());
+        status.put("moved", movedCount.get());
+        status.put("failed", failedCount.get());
+        status.put("startedAt", startedAt);
+        status.put("finishedAt", finishedAt);
+        if (segmentThumbnailStore != null) {
+            status.put("segmentStore", segmentThumbnailStore.getStats());
+        }
+        return status;
+    }
+
+    private void migrate() {
+        try {
+            for (Integer size : thumbnailSizes) {
+                Path sizeDirectory = Paths.get(thumbnailBasePath, String.valueOf(size));
+                if (Files.isDirectory(sizeDirectory)) {
+                    if (segmentThumbnailStore != null) {
+                        packDirectory(sizeDirectory);
+                    } else {
+                        migrateDirectory(sizeDirectory);
+                    }
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    logger.info("Thumbnail layout migration interrupted");
+                    return;
+                }
+            }
+            if (movedCount.get() > 0 || failedCount.get() > 0) {
+                logger.info("Thumbnail layout migration finished: {} moved, {} failed", movedCount.get(), failedCount.get());
+            }
+        } catch (Exception e) {
+            logger.error("Thumbnail layout migration failed", e);
+        } finally {
+            finishedAt = LocalDateTime.now();
+            running.set(false);
+        }
+    }
+
+    private void migrateDirectory(Path sizeDirectory) throws IOException {
+        // Stored thumbnail paths to rewrite: [fileHash, oldPath, newPath]
+        List<String[]> pathUpdates = new ArrayList<>();
+
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(sizeDirectory, Files::isRegularFile)) {
+            for (Path legacyFile : entries) {
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                Matcher matcher = THUMBNAIL_FILE_NAME.matcher(legacyFile.getFileName().toString());
+                if (!matcher.matches()) {
+                    continue; // partial writes and anything else that is not a rendition
+                }
+
+                String fileHash = matcher.group(1);
+                int size = Integer.parseInt(matcher.group(2));
+                ThumbnailService.ThumbnailFormat format =
+                        ThumbnailService.ThumbnailFormat.of(legacyFile.getFileName().toString());
+                Path target = fileThumbnailStore.getThumbnailFilePath(fileHash, size, format);
+                if (target.equals(legacyFile)) {
+                    continue;
+                }
+
+                try {
+                    Files.createDirectories(target.getParent());
+                    if (Files.exists(target)) {
+                        // Already re-rendered into the new layout; the flat copy is redundant
+                        Files.delete(legacyFile);
+                    } else {
+                        Files.move(legacyFile, target, StandardCopyOption.ATOMIC_MOVE);
+                    }
+                } catch (NoSuchFileException e) {
+                    continue; // deleted or moved by someone else meanwhile
+                } catch (IOException e) {
+                    failedCount.incrementAndGet();
+                    logger.warn("Could not migrate thumbnail {}: {}", legacyFile, e.getMessage());
+                    continue;
+                }
+
+                recordMove(pathUpdates, fileHash, format, legacyFile.toString(), target.toString());
+            }
+        } finally {
+            updateStoredPaths(pathUpdates);
+        }
+    }
+
+    private void packDirectory(Path sizeDirectory) throws IOException {
+        List<String[]> pathUpdates = new ArrayList<>();
+        // Loose files already packed; deleted only once the segment holding them is on disk
+        List<Path> packedFiles = new ArrayList<>();
+
+        // Depth 3 covers both the flat files and the <ab>/<cd>/ shards
+        try (Stream<Path> entries = Files.walk(sizeDirectory, 3)) {
+            Iterator<Path> files = entries.filter(Files::isRegularFile).iterator();
+            while (files.hasNext()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                Path file = files.next();
+                Matcher matcher = THUMBNAIL_FILE_NAME.matcher(file.getFileName().toString());
+                if (!matcher.matches()) {
+                    continue;
+                }
+
+                String fileHash = matcher.group(1);
+                int size = Integer.parseInt(matcher.group(2));
+                ThumbnailService.ThumbnailFormat format =
+                        ThumbnailService.ThumbnailFormat.of(file.getFileName().toString());
+
+                try {
+                    // A rendition already in the segments was written after this file; keep it
+                    segmentThumbnailStore.putIfAbsent(fileHash, size, format, Files.readAllBytes(file));
+                } catch (NoSuchFileException e) {
+                    continue;
+                } catch (IOException e) {
+                    failedCount.incrementAndGet();
+                    logger.warn("Could not pack thumbnail {}: {}", file, e.getMessage());
+                    continue;
+                }
+
+                packedFiles.add(file);
+                if (packedFiles.size() >= DB_UPDATE_BATCH_SIZE) {
+                    deletePackedFiles(packedFiles);
+                }
+                recordMove(pathUpdates, fileHash, format, file.toString(),
+                        segmentThumbnailStore.getPath(fileHash, size, format));
+            }
+        } finally {
+            deletePackedFiles(packedFiles);
+            updateStoredPaths(pathUpdates);
+        }
+    }
+
+    private void deletePackedFiles(List<Path> packedFiles) throws IOException {
+        if (packedFiles.isEmpty()) {
+            return;
+        }
+        segmentThumbnailStore.sync();
+        for (Path file : packedFiles) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                logger.warn("Could not delete packed thumbnail {}: {}", file, e.getMessage());
+            }
+        }
+        packedFiles.clear();
+    }
+
+    private void recordMove(List<String[]> pathUpdates, String fileHash, ThumbnailService.ThumbnailFormat format,
+                            String oldPath, String newPath) {
+        if (format == ThumbnailService.ThumbnailFormat.JPEG) {
+            pathUpdates.add(new String[]{fileHash, oldPath, newPath});
+            if (pathUpdates.size() >= DB_UPDATE_BATCH_SIZE) {
+                updateStoredPaths(pathUpdates);
+            }
+        }
+
+        long moved = movedCount.incrementAndGet();
+        if (moved % PROGRESS_LOG_INTERVAL == 0) {
+            logger.info("Thumbnail layout migration: {} files moved", moved);
+        }
+    }
+
+    /**
+     * Point MediaFile.thumbnailPath at the new location, for the rows that stored the old one.
+     */
+    private void updateStoredPaths(List<String[]> pathUpdates) {
+        if (pathUpdates.isEmpty()) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                for (String[] update : pathUpdates) {
+                    mediaFileRepository.updateThumbnailPath(update[0], update[1], update[2]);
+                }
+            });
+        } catch (Exception e) {
+            // Clients only use the file name, which is unchanged, so a stale path is harmless
+            logger.warn("Could not update stored thumbnail paths: {}", e.getMessage());
+        }
+        pathUpdates.clear();
+    }
+}
@@ -0,0 +1,330 @@
+package com.memzy.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.memzy.model.MediaFile;
+import com.memzy.repository.MediaFileRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Brings every processed media file's thumbnails up to date after thumbnail sizes or the encoder
+ * change: re-renders renditions that are missing or were produced with other settings (see
+ * {@link ThumbnailService#getRenditionSignature()}), and backfills BlurHash placeholders. Media
+ * that FAILED in the pipeline are retried and marked READY once their thumbnails render; media
+ * still PENDING or PROCESSING are left to the pipeline.
+ *
+ * Media is walked in id order in small batches. Each batch is rendered in parallel, committed
+ * in one short transaction, and then recorded in a checkpoint file, so a restart resumes after
+ * the last committed batch instead of starting over.
+ */
+@Service
+public class ThumbnailRegenerationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailRegenerationService.class);
+
+    private static final String CHECKPOINT_FILE = "regeneration-checkpoint.json";
+
+    private static final List<MediaFile.ProcessingStatus> STATUSES =
+            List.of(MediaFile.ProcessingStatus.READY, MediaFile.ProcessingStatus.FAILED);
+
+    @Autowired
+    private MediaFileRepository mediaFileRepository;
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${memzy.storage.thumbnail-path}")
+    private String thumbnailBasePath;
+
+    @Value("${memzy.media.regeneration.workers:2}")
+    private int workers;
+
+    @Value("${memzy.media.regeneration.batch-size:50}")
+    private int batchSize;
+
+    private ExecutorService coordinator;
+    private ExecutorService workerPool;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private volatile boolean stopRequested;
+
+    // Guarded by this; replaced when a run starts and saved after every batch
+    private Checkpoint checkpoint;
+
+    // Throughput is measured over this process's share of the run
+    private volatile LocalDateTime sessionStartedAt;
+    private volatile long sessionProcessed;
+
+    @PostConstruct
+    public void init() {
+        coordinator = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("thumbnail-regeneration-"));
+        workerPool = Executors.newFixedThreadPool(workers, new CustomizableThreadFactory("thumbnail-regeneration-worker-"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stopRequested = true;
+        coordinator.shutdownNow();
+        workerPool.shutdownNow();
+    }
+
+    /**
+     * Pick up a run that was interrupted by a shutdown.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        try {
+            Checkpoint saved = readCheckpoint();
+            if (saved != null && saved.getFinishedAt() == null) {
+                logger.info("Resuming thumbnail regeneration after media id {}", saved.getLastId());
+                launch(saved);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not read thumbnail regeneration checkpoint: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Start a run, or continue an unfinished one unless {@code restart} is set. With
+     * {@code force}, thumbnails are re-rendered even if they look current. Returns false if a
+     * run is already in progress.
+     */
+    public synchronized boolean start(boolean force, boolean restart) throws IOException {
+        if (running.get()) {
+            return false;
+        }
+        Checkpoint saved = restart ? null : readCheckpoint();
+        if (saved == null || saved.getFinishedAt() != null) {
+            saved = Checkpoint.builder()
+                    .lastId(0L)
+                    .force(force)
+                    .signature(thumbnailService.getRenditionSignature())
+                    .total(mediaFileRepository.countByProcessingStatusIn(STATUSES))
+                    .startedAt(LocalDateTime.now())
+                    .build();
+            writeCheckpoint(saved);
+        }
+        return launch(saved);
+    }
+
+    /**
+     * Stop after the batch in progress. The checkpoint is kept, so {@link #start} continues.
+     */
+    public boolean stop() {
+        if (!running.get()) {
+            return false;
+        }
+        stopRequested = true;
+        return true;
+    }
+
+    public synchronized Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("running", running.get());
+        if (checkpoint == null) {
+            return status;
+        }
+        long processed = checkpoint.getRegenerated() + checkpoint.getSkipped() + checkpoint.getFailed();
+        status.put("force", checkpoint.isForce());
+        status.put("lastId", checkpoint.getLastId());
+        status.put("total", checkpoint.getTotal());
+        status.put("processed", processed);
+        status.put("regenerated", checkpoint.getRegenerated());
+        status.put("skipped", checkpoint.getSkipped());
+        status.put("failed", checkpoint.getFailed());
+        status.put("startedAt", checkpoint.getStartedAt());
+        status.put("finishedAt", checkpoint.getFinishedAt());
+
+        LocalDateTime since = sessionStartedAt;
+        if (since != null && running.get()) {
+            double seconds = Math.max(1, Duration.between(since, LocalDateTime.now()).toSeconds());
+            double perSecond = sessionProcessed / seconds;
+            status.put("mediaPerSecond", Math.round(perSecond * 100) / 100.0);
+            long remaining = Math.max(0, checkpoint.getTotal() - processed);
+            status.put("etaSeconds", perSecond > 0 ? Math.round(remaining / perSecond) : null);
+        }
+        return status;
+    }
+
+    private synchronized boolean launch(Checkpoint from) {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        checkpoint = from;
+        stopRequested = false;
+        sessionStartedAt = LocalDateTime.now();
+        sessionProcessed = 0;
+        coordinator.execute(this::run);
+        return true;
+    }
+
+    private void run() {
+        try {
+            while (!stopRequested && !Thread.currentThread().isInterrupted()) {
+                List<Long> ids = mediaFileRepository.findIdsByProcessingStatusInAfter(
+                        STATUSES, checkpoint.getLastId(), PageRequest.of(0, batchSize));
+                if (ids.isEmpty()) {
+                    synchronized (this) {
+                        checkpoint.setFinishedAt(LocalDateTime.now());
+                        writeCheckpoint(checkpoint);
+                    }
+                    logger.info("Thumbnail regeneration finished: {} regenerated, {} up to date, {} failed",
+                            checkpoint.getRegenerated(), checkpoint.getSkipped(), checkpoint.getFailed());
+                    return;
+                }
+                processBatch(ids);
+            }
+            logger.info("Thumbnail regeneration stopped after media id {}", checkpoint.getLastId());
+        } catch (Exception e) {
+            logger.error("Thumbnail regeneration failed after media id {}", checkpoint.getLastId(), e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private void processBatch(List<Long> ids) throws IOException {
+        List<MediaFile> batch = mediaFileRepository.findAllById(ids);
+
+        List<CompletableFuture<Result>> renders = new ArrayList<>();
+        for (MediaFile mediaFile : batch) {
+            renders.add(CompletableFuture.supplyAsync(() -> render(mediaFile), workerPool));
+        }
+        List<Result> results = renders.stream().map(CompletableFuture::join).toList();
+
+        // One short transaction per batch; re-read each row so concurrent edits are kept
+        List<Result> changed = results.stream().filter(result -> result.outcome != Outcome.FAILED).toList();
+        if (!changed.isEmpty()) {
+            transactionTemplate.executeWithoutResult(status -> {
+                for (Result result : changed) {
+                    mediaFileRepository.findById(result.mediaFileId).ifPresent(media -> {
+                        if (result.outcome == Outcome.REGENERATED) {
+                            media.setThumbnailPath(result.thumbnailPath);
+                            if (media.getProcessingStatus() != MediaFile.ProcessingStatus.PENDING
+                                    && media.getProcessingStatus() != MediaFile.ProcessingStatus.PROCESSING) {
+                                media.setProcessingStatus(MediaFile.ProcessingStatus.READY);
+                            }
+                        }
+                        if (result.blurHash != null) {
+                            media.setBlurHash(result.blurHash);
+                        }
+                        media.setThumbnailSignature(result.signature);
+                        mediaFileRepository.save(media);
+                    });
+                }
+            });
+        }
+
+        synchronized (this) {
+            for (Result result : results) {
+                switch (result.outcome) {
+                    case REGENERATED -> checkpoint.setRegenerated(checkpoint.getRegenerated() + 1);
+                    case SKIPPED -> checkpoint.setSkipped(checkpoint.getSkipped() + 1);
+                    case FAILED -> checkpoint.setFailed(checkpoint.getFailed() + 1);
+                }
+            }
+            checkpoint.setLastId(ids.get(ids.size() - 1));
+            writeCheckpoint(checkpoint);
+            sessionProcessed += ids.size();
+        }
+    }
+
+    private Result render(MediaFile mediaFile) {
+        String signature = thumbnailService.getRenditionSignature();
+        try {
+            // Rows from before signatures existed are trusted as long as their renditions exist
+            boolean stale = checkpoint.isForce()
+                    || mediaFile.getProcessingStatus() == MediaFile.ProcessingStatus.FAILED
+                    || mediaFile.getThumbnailPath() == null
+                    || (mediaFile.getThumbnailSignature() != null && !mediaFile.getThumbnailSignature().equals(signature))
+                    || !thumbnailService.hasEagerRenditions(mediaFile.getFileHash());
+
+            String thumbnailPath = null;
+            if (stale) {
+                thumbnailPath = thumbnailService.regenerateThumbnails(mediaFile);
+            }
+            String blurHash = stale || mediaFile.getBlurHash() == null
+                    ? thumbnailService.generateBlurHash(mediaFile.getFileHash())
+                    : null;
+            return new Result(mediaFile.getId(), stale ? Outcome.REGENERATED : Outcome.SKIPPED,
+                    thumbnailPath, blurHash, signature);
+        } catch (Exception e) {
+            logger.warn("Could not regenerate thumbnails for media {}: {}", mediaFile.getId(), e.getMessage());
+            return new Result(mediaFile.getId(), Outcome.FAILED, null, null, null);
+        }
+    }
+
+    private Checkpoint readCheckpoint() throws IOException {
+        Path file = getCheckpointFile();
+        return Files.exists(file) ? objectMapper.readValue(file.toFile(), Checkpoint.class) : null;
+    }
+
+    private void writeCheckpoint(Checkpoint state) throws IOException {
+        Path file = getCheckpointFile();
+        Files.createDirectories(file.getParent());
+        // Replaced atomically, so a crash mid-write leaves the previous checkpoint intact
+        Path partial = file.resolveSibling(CHECKPOINT_FILE + ".part");
+        objectMapper.writeValue(partial.toFile(), state);
+        Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path getCheckpointFile() {
+        return Paths.get(thumbnailBasePath, CHECKPOINT_FILE);
+    }
+
+    private enum Outcome { REGENERATED, SKIPPED, FAILED }
+
+    private record Result(Long mediaFileId, Outcome outcome, String thumbnailPath, String blurHash, String signature) {
+    }
+
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Checkpoint {
+        private long lastId;
+        private boolean force;
+        private String signature;
+        private long total;
+        private long regenerated;
+        private long skipped;
+        private long failed;
+        private LocalDateTime startedAt;
+        private LocalDateTime finishedAt;
+    }
+}
@@ -1,173 +1,879 @@
 package com.memzy.service;
 
+import com.drew.imaging.ImageMetadataReader;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.exif.ExifIFD0Directory;
+import com.drew.metadata.exif.ExifThumbnailDirectory;
+import com.memzy.model.MediaFile;
+import com.memzy.repository.MediaFileRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import net.coobird.thumbnailator.Thumbnails;
+import net.coobird.thumbnailator.util.exif.ExifFilterUtils;
+import net.coobird.thumbnailator.util.exif.Orientation;
+import org.bytedeco.ffmpeg.global.avutil;
 import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
 import org.bytedeco.javacv.Frame;
 import org.bytedeco.javacv.Java2DFrameConverter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
 @Service
 public class ThumbnailService {
 
     private static final Logger logger = LoggerFactory.getLogger(ThumbnailService.class);
 
-    @Value("${memzy.storage.thumbnail-path}")
-    private String thumbnailBasePath;
+    @Autowired
+    private MediaFileRepository mediaFileRepository;
+
+    @Autowired
+    private FileThumbnailStore fileThumbnailStore;
+
+    @Autowired
+    private ThumbnailCache thumbnailCache;
+
+    @Autowired
+    private WebpFailureTracker webpFailures;
+
+    // Present only when memzy.media.thumbnail-store=segments
+    @Autowired(required = false)
+    private SegmentThumbnailStore segmentThumbnailStore;
 
     @Value("${memzy.media.thumbnail-sizes}")
     private List<Integer> thumbnailSizes;
 
+    // Rendered at ingest; every other configured size is rendered the first time it is requested
+    @Value("${memzy.media.eager-thumbnail-sizes:300,600}")
+    private List<Integer> eagerThumbnailSizes;
+
+    private static final float JPEG_QUALITY = 0.85f;
+
+    // Decode at least this many times the target size before the final high-quality downscale
+    private static final int SUBSAMPLING_HEADROOM = 2;
+
+    private static final double PREVIEW_ASPECT_TOLERANCE = 0.02;
+
+    private static final int MAX_EMBEDDED_PREVIEW_BYTES = 1024 * 1024;
+
+    // BlurHash only keeps a handful of frequency components, so a tiny input is plenty
+    private static final int BLUR_HASH_INPUT_SIZE = 32;
+
+    // Bump whenever the rendering or encoding changes in a way existing thumbnails should pick up
+    private static final int ENCODER_VERSION = 1;
+
+    public enum ThumbnailFormat {
+        JPEG("jpg", "image/jpeg"),
+        WEBP("webp", "image/webp");
+
+        private final String extension;
+        private final String contentType;
+
+        ThumbnailFormat(String extension, String contentType) {
+            this.extension = extension;
+            this.contentType = contentType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public static ThumbnailFormat of(String thumbnailFileName) {
+            return thumbnailFileName != null && thumbnailFileName.endsWith("." + WEBP.extension) ? WEBP : JPEG;
+        }
+    }
+
+    // A WebP copy is stored alongside every JPEG rendition when enabled
+    @Value("${memzy.media.webp.enabled:false}")
+    private volatile boolean webpEnabled;
+
+    @Value("${memzy.media.webp.quality:80}")
+    private int webpQuality;
+
+    private ExecutorService encodeExecutor;
+
+    // Converters keep native buffers between calls; one per thread avoids reallocating them
+    private static final ThreadLocal<Java2DFrameConverter> FRAME_CONVERTER =
+            ThreadLocal.withInitial(Java2DFrameConverter::new);
+
+    // One render per (hash, size); concurrent requests for the same rendition wait on it
+    private final Map<String, CompletableFuture<Void>> pendingRenders = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        encodeExecutor = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(), new CustomizableThreadFactory("thumbnail-encode-"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        encodeExecutor.shutdownNow();
+    }
+
+    /**
+     * Render the eager sizes for a newly ingested image. The remaining sizes are produced on
+     * demand by {@link #getOrRenderThumbnail}.
+     */
     public Map<Integer, String> generateThumbnails(File sourceFile, String fileHash) throws IOException {
-        Map<Integer, String> thumbnailPaths = new HashMap<>();
+        return renderImageThumbnails(sourceFile, fileHash, getEagerSizes());
+    }
 
-        for (Integer size : thumbnailSizes) {
-            try {
-                String thumbnailFileName = fileHash + "_" + size + ".jpg";
-                Path thumbnailDir = Paths.get(thumbnailBasePath, String.valueOf(size));
-                Path thumbnailPath = thumbnailDir.resolve(thumbnailFileName);
-
-                Thumbnails.of(sourceFile)
-                        .size(size, size)
-                        .outputFormat("jpg")
-                        .outputQuality(0.85)
-                        .toFile(thumbnailPath.toFile());
-
-                thumbnailPaths.put(size, thumbnailPath.toString());
-                logger.debug("Generated thumbnail: {} for size: {}", thumbnailPath, size);
-            } catch (IOException e) {
-                logger.error("Failed to generate thumbnail for size: {}", size, e);
-                throw e;
+    private Map<Integer, String> renderImageThumbnails(File sourceFile, String fileHash, Collection<Integer> requestedSizes)
+            throws IOException {
+        List<Integer> sizes = new ArrayList<>(requestedSizes);
+        sizes.sort(Comparator.reverseOrder());
+
+        ImageSource source = probeImage(sourceFile);
+
+        // Sizes the camera's embedded preview can cover are scaled from it; the rest come from a
+        // single reduced-resolution decode of the original, cascading down from the largest.
+        Map<Integer, BufferedImage> renditions = new LinkedHashMap<>();
+        BufferedImage previous = null;
+        BufferedImage preview = null;
+        for (int size : sizes) {
+            BufferedImage rendition;
+            if (source.canUsePreview(size)) {
+                if (preview == null) {
+                    preview = source.orient(source.preview);
+                }
+                rendition = Thumbnails.of(preview).size(size, size).asBufferedImage();
+            } else if (previous == null) {
+                rendition = decodeForSize(sourceFile, source, size);
+                previous = rendition;
+            } else {
+                rendition = Thumbnails.of(previous).size(size, size).asBufferedImage();
+                previous = rendition;
             }
+            renditions.put(size, rendition);
         }
 
-        return thumbnailPaths;
+        return writeRenditions(renditions, fileHash);
     }
 
     public String generateVideoThumbnail(File videoFile, String fileHash) throws IOException {
-        Map<Integer, String> thumbnailPaths = new HashMap<>();
-
         // Extract a frame from the video using JavaCV (bundled FFmpeg)
-        BufferedImage frame = extractVideoFrame(videoFile);
+        List<Integer> sizes = getEagerSizes();
+        BufferedImage frame = extractVideoFrame(videoFile, Collections.max(sizes));
         if (frame == null) {
             throw new IOException("Failed to extract frame from video: " + videoFile.getName());
         }
 
-        // Generate thumbnails at all sizes from the extracted frame
-        for (Integer size : thumbnailSizes) {
-            try {
-                String thumbnailFileName = fileHash + "_" + size + ".jpg";
-                Path thumbnailDir = Paths.get(thumbnailBasePath, String.valueOf(size));
-                Path thumbnailPath = thumbnailDir.resolve(thumbnailFileName);
-
-                // Create thumbnail directory if it doesn't exist
-                thumbnailDir.toFile().mkdirs();
-
-                // Use Thumbnailator to resize the frame
-                Thumbnails.of(frame)
-                        .size(size, size)
-                        .outputFormat("jpg")
-                        .outputQuality(0.85)
-                        .toFile(thumbnailPath.toFile());
-
-                thumbnailPaths.put(size, thumbnailPath.toString());
-                logger.debug("Generated video thumbnail: {} for size: {}", thumbnailPath, size);
-            } catch (IOException e) {
-                logger.error("Failed to generate video thumbnail for size: {}", size, e);
-            }
-        }
+        Map<Integer, String> thumbnailPaths = writeRenditions(scaleCascade(frame, sizes), fileHash);
 
         // Return the 300px thumbnail path as default
         String defaultThumbnailPath = thumbnailPaths.get(300);
         if (defaultThumbnailPath != null) {
             return defaultThumbnailPath;
         }
-
-        // If 300px failed, return any available thumbnail
         return thumbnailPaths.values().stream().findFirst().orElseThrow(() ->
                 new IOException("Failed to generate any video thumbnails for: " + videoFile.getName())
         );
     }
 
     /**
-     * Extract a frame from the video at approximately 1 second (or 10% into the video if shorter).
-     * Uses JavaCV with bundled FFmpeg - no external FFmpeg installation required.
+     * BlurHash placeholder for a media file, computed from its smallest stored rendition.
+     * Returns null when no rendition exists yet.
      */
-    private BufferedImage extractVideoFrame(File videoFile) {
-        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(videoFile)) {
-            grabber.start();
+    public String generateBlurHash(String fileHash) throws IOException {
+        List<Integer> sizes = new ArrayList<>(thumbnailSizes);
+        Collections.sort(sizes);
+        for (int size : sizes) {
+            BufferedImage thumbnail = readThumbnail(fileHash, size);
+            if (thumbnail == null) {
+                continue;
+            }
+            BufferedImage small = Thumbnails.of(thumbnail)
+                    .size(BLUR_HASH_INPUT_SIZE, BLUR_HASH_INPUT_SIZE)
+                    .asBufferedImage();
+            // 4x3 components for landscape, 3x4 for portrait
+            boolean portrait = small.getHeight() > small.getWidth();
+            return BlurHashEncoder.encode(small, portrait ? 3 : 4, portrait ? 4 : 3);
+        }
+        return null;
+    }
 
-            // Get video duration and calculate target timestamp
-            long durationMicros = grabber.getLengthInTime();
-            long targetTimestamp;
+    public boolean isWebpEnabled() {
+        return webpEnabled;
+    }
 
-            if (durationMicros > 1_000_000) {
-                // If video is longer than 1 second, grab frame at 1 second
-                targetTimestamp = 1_000_000;
-            } else {
-                // For very short videos, grab frame at 10% of duration
-                targetTimestamp = durationMicros / 10;
+    /**
+     * The {@code size} JPEG rendition for {@code fileHash}, rendering and storing it first if it
+     * does not exist yet. Only configured sizes can be rendered. The resource's file name tells
+     * the format.
+     */
+    public Resource getOrRenderThumbnail(String fileHash, int size) throws IOException {
+        return getOrRenderThumbnail(fileHash, size, ThumbnailFormat.JPEG);
+    }
+
+    /**
+     * As {@link #getOrRenderThumbnail(String, int)}, preferring {@code format}. Falls back to
+     * the JPEG rendition when WebP is disabled or could not be encoded.
+     */
+    public Resource getOrRenderThumbnail(String fileHash, int size, ThumbnailFormat format) throws IOException {
+        if (!thumbnailSizes.contains(size)) {
+            throw new IllegalArgumentException("Unsupported thumbnail size: " + size);
+        }
+        if (format == ThumbnailFormat.WEBP
+                && (!webpEnabled || webpFailures.hasFailed(ThumbnailStore.fileName(fileHash, size, format)))) {
+            format = ThumbnailFormat.JPEG;
+        }
+
+        String cacheKey = ThumbnailStore.fileName(fileHash, size, format);
+        Resource cached = thumbnailCache.get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        Resource existing = findThumbnail(fileHash, size, format);
+        if (existing != null) {
+            return cacheThumbnail(cacheKey, existing);
+        }
+
+        String key = fileHash + "_" + size;
+        CompletableFuture<Void> render = new CompletableFuture<>();
+        CompletableFuture<Void> pending = pendingRenders.putIfAbsent(key, render);
+        if (pending != null) {
+            awaitRender(pending);
+        } else {
+            try {
+                // Re-check: a render for this key may have finished just before we registered ours
+                if (findThumbnail(fileHash, size, format) == null) {
+                    renderOnDemand(fileHash, size);
+                }
+                render.complete(null);
+            } catch (IOException | RuntimeException e) {
+                render.completeExceptionally(e);
+                throw e;
+            } finally {
+                pendingRenders.remove(key, render);
             }
+        }
 
-            // Seek to target timestamp
-            grabber.setTimestamp(targetTimestamp);
+        Resource rendered = findThumbnail(fileHash, size, format);
+        if (rendered == null && format != ThumbnailFormat.JPEG) {
+            rendered = findThumbnail(fileHash, size, ThumbnailFormat.JPEG);
+        }
+        if (rendered == null) {
+            throw new IOException("Rendered thumbnail not found: " + cacheKey);
+        }
+        return cacheThumbnail(cacheKey, rendered);
+    }
 
-            // Grab a video frame (skip audio frames)
-            Frame frame;
-            Java2DFrameConverter converter = new Java2DFrameConverter();
+    private Resource cacheThumbnail(String cacheKey, Resource thumbnail) throws IOException {
+        if (!thumbnailCache.isEnabled()) {
+            return thumbnail;
+        }
+        byte[] bytes;
+        try (InputStream input = thumbnail.getInputStream()) {
+            bytes = input.readAllBytes();
+        }
+        thumbnailCache.put(cacheKey, thumbnail.getFilename(), bytes);
+        return new ByteBufferResource(thumbnail.getFilename(), ByteBuffer.wrap(bytes));
+    }
+
+    private void awaitRender(CompletableFuture<Void> render) throws IOException {
+        try {
+            render.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException("Thumbnail render failed", e.getCause());
+        }
+    }
+
+    private void renderOnDemand(String fileHash, int size) throws IOException {
+        // A larger stored rendition is a much cheaper source than the original
+        for (int larger : getSizesAbove(size)) {
+            BufferedImage source = readThumbnail(fileHash, larger);
+            if (source != null) {
+                writeRenditions(Map.of(size, Thumbnails.of(source).size(size, size).asBufferedImage()), fileHash);
+                logger.debug("Rendered {}px thumbnail for {} from the {}px rendition", size, fileHash, larger);
+                return;
+            }
+        }
+
+        MediaFile mediaFile = mediaFileRepository.findFirstByFileHash(fileHash)
+                .orElseThrow(() -> new NoSuchElementException("No media file for hash: " + fileHash));
+        File originalFile = new File(mediaFile.getFilePath());
+        if (!originalFile.exists()) {
+            throw new NoSuchElementException("Original file missing for hash: " + fileHash);
+        }
+
+        if (mediaFile.getMediaType() == MediaFile.MediaType.VIDEO) {
+            BufferedImage frame = extractVideoFrame(originalFile, size);
+            if (frame == null) {
+                throw new IOException("Failed to extract frame from video: " + originalFile.getName());
+            }
+            writeRenditions(scaleCascade(frame, List.of(size)), fileHash);
+        } else {
+            renderImageThumbnails(originalFile, fileHash, List.of(size));
+        }
+        logger.debug("Rendered {}px thumbnail for {} from the original", size, fileHash);
+    }
 
-            while ((frame = grabber.grabImage()) != null) {
-                if (frame.image != null) {
-                    BufferedImage image = converter.convert(frame);
-                    if (image != null) {
-                        logger.debug("Extracted frame from video: {} at timestamp: {}μs",
-                                videoFile.getName(), targetTimestamp);
-                        return image;
+    private List<Integer> getEagerSizes() {
+        List<Integer> sizes = eagerThumbnailSizes.stream().filter(thumbnailSizes::contains).toList();
+        return sizes.isEmpty() ? List.of(Collections.min(thumbnailSizes)) : sizes;
+    }
+
+    private List<Integer> getSizesAbove(int size) {
+        return thumbnailSizes.stream().filter(s -> s > size).sorted().toList();
+    }
+
+    /**
+     * Scale an image to each size, largest first, each step starting from the previous rendition.
+     */
+    private Map<Integer, BufferedImage> scaleCascade(BufferedImage image, Collection<Integer> requestedSizes)
+            throws IOException {
+        List<Integer> sizes = new ArrayList<>(requestedSizes);
+        sizes.sort(Comparator.reverseOrder());
+
+        Map<Integer, BufferedImage> renditions = new LinkedHashMap<>();
+        BufferedImage previous = image;
+        for (int size : sizes) {
+            previous = Thumbnails.of(previous).size(size, size).asBufferedImage();
+            renditions.put(size, previous);
+        }
+        return renditions;
+    }
+
+    /**
+     * Encode already scaled renditions as JPEG (plus WebP when enabled), in parallel on the
+     * encode pool, and store them. Returns where the JPEGs were stored.
+     */
+    private Map<Integer, String> writeRenditions(Map<Integer, BufferedImage> renditions, String fileHash) throws IOException {
+        Map<Integer, CompletableFuture<String>> encodes = new LinkedHashMap<>();
+        for (Map.Entry<Integer, BufferedImage> entry : renditions.entrySet()) {
+            int size = entry.getKey();
+            BufferedImage rendition = entry.getValue();
+
+            encodes.put(size, CompletableFuture.supplyAsync(() -> {
+                try {
+                    ThumbnailStore store = getStore();
+                    String thumbnailPath = store.put(fileHash, size, ThumbnailFormat.JPEG, encodeJpeg(rendition));
+                    if (webpEnabled) {
+                        String webpName = ThumbnailStore.fileName(fileHash, size, ThumbnailFormat.WEBP);
+                        byte[] webp = encodeWebpQuietly(rendition, webpName);
+                        if (webp != null) {
+                            store.put(fileHash, size, ThumbnailFormat.WEBP, webp);
+                            webpFailures.clearFailure(webpName);
+                        } else {
+                            webpFailures.recordFailure(webpName);
+                        }
                     }
+                    for (ThumbnailFormat format : ThumbnailFormat.values()) {
+                        thumbnailCache.invalidate(ThumbnailStore.fileName(fileHash, size, format));
+                    }
+                    logger.debug("Generated thumbnail: {} for size: {}", thumbnailPath, size);
+                    return thumbnailPath;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
                 }
+            }, encodeExecutor));
+        }
+
+        Map<Integer, String> thumbnailPaths = new HashMap<>();
+        for (Map.Entry<Integer, CompletableFuture<String>> encode : encodes.entrySet()) {
+            try {
+                thumbnailPaths.put(encode.getKey(), encode.getValue().join());
+            } catch (CompletionException e) {
+                logger.error("Failed to generate thumbnail for size: {}", encode.getKey(), e.getCause());
+                throw e.getCause() instanceof UncheckedIOException unchecked
+                        ? unchecked.getCause()
+                        : new IOException("Failed to generate thumbnail for size: " + encode.getKey(), e.getCause());
             }
+        }
+        return thumbnailPaths;
+    }
 
-            // If seeking didn't work, try grabbing the first frame
-            grabber.setTimestamp(0);
-            frame = grabber.grabImage();
-            if (frame != null && frame.image != null) {
-                return converter.convert(frame);
+    /**
+     * Decode the original at the smallest resolution that still leaves headroom for a clean
+     * downscale to {@code size}. ImageIO's JPEG reader has no scaled IDCT, but source subsampling
+     * skips the unneeded rows and columns while decoding, so a 48 MP photo never materialises at
+     * full resolution. Formats without an ImageIO reader fall back to Thumbnailator.
+     */
+    private BufferedImage decodeForSize(File sourceFile, ImageSource source, int size) throws IOException {
+        if (source.width > 0 && source.height > 0) {
+            try (ImageInputStream input = ImageIO.createImageInputStream(sourceFile)) {
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+                if (readers.hasNext()) {
+                    ImageReader reader = readers.next();
+                    try {
+                        reader.setInput(input, true, true);
+                        ImageReadParam param = reader.getDefaultReadParam();
+                        int subsampling = Math.max(1,
+                                Math.max(source.width, source.height) / (size * SUBSAMPLING_HEADROOM));
+                        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+                        BufferedImage decoded = source.orient(reader.read(0, param));
+                        logger.debug("Decoded {} at 1/{} resolution for {}px", sourceFile.getName(), subsampling, size);
+                        return Thumbnails.of(decoded).size(size, size).asBufferedImage();
+                    } finally {
+                        reader.dispose();
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // CMYK JPEGs and other exotic variants; let Thumbnailator have a go
+                logger.debug("Subsampled decode failed for {}, falling back: {}", sourceFile.getName(), e.getMessage());
             }
+        }
+
+        return Thumbnails.of(sourceFile)
+                .size(size, size)
+                .asBufferedImage();
+    }
 
-            logger.error("Could not extract any frame from video: {}", videoFile.getName());
+    /**
+     * Read what is needed to plan the decode without decoding any pixels: stored dimensions from
+     * the image header, EXIF orientation, and the embedded EXIF preview if there is one.
+     */
+    private ImageSource probeImage(File sourceFile) {
+        ImageSource source = new ImageSource();
+
+        try (ImageInputStream input = ImageIO.createImageInputStream(sourceFile)) {
+            Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : Collections.emptyIterator();
+            if (readers.hasNext()) {
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(input, true, true);
+                    source.width = reader.getWidth(0);
+                    source.height = reader.getHeight(0);
+                } finally {
+                    reader.dispose();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Could not read image header of {}: {}", sourceFile.getName(), e.getMessage());
+        }
+
+        try {
+            Metadata metadata = ImageMetadataReader.readMetadata(sourceFile);
+
+            ExifIFD0Directory ifd0 = metadata.getFirstDirectoryOfType(ExifIFD0Directory.class);
+            if (ifd0 != null && ifd0.containsTag(ExifIFD0Directory.TAG_ORIENTATION)) {
+                source.orientation = Orientation.typeOf(ifd0.getInt(ExifIFD0Directory.TAG_ORIENTATION));
+            }
+
+            ExifThumbnailDirectory thumbnail = metadata.getFirstDirectoryOfType(ExifThumbnailDirectory.class);
+            if (thumbnail != null && source.width > 0) {
+                source.preview = readEmbeddedPreview(sourceFile, thumbnail);
+            }
+        } catch (Exception e) {
+            logger.debug("Could not read EXIF of {}: {}", sourceFile.getName(), e.getMessage());
+        }
+
+        return source;
+    }
+
+    private BufferedImage readEmbeddedPreview(File sourceFile, ExifThumbnailDirectory thumbnail) throws IOException {
+        Integer offset = thumbnail.getAdjustedThumbnailOffset();
+        Integer length = thumbnail.getInteger(ExifThumbnailDirectory.TAG_THUMBNAIL_LENGTH);
+        if (offset == null || length == null || length <= 0 || length > MAX_EMBEDDED_PREVIEW_BYTES) {
             return null;
+        }
+
+        byte[] bytes = new byte[length];
+        try (FileChannel channel = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    return null;
+                }
+                position += read;
+            }
+        }
+        return ImageIO.read(new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * The store new renditions go to: the segment store when configured, otherwise files.
+     */
+    private ThumbnailStore getStore() {
+        return segmentThumbnailStore != null ? segmentThumbnailStore : fileThumbnailStore;
+    }
+
+    /**
+     * The stored rendition, or null if it has not been rendered. With the segment store active,
+     * renditions written as files before the switch are still found.
+     */
+    private Resource findThumbnail(String fileHash, int size, ThumbnailFormat format) throws IOException {
+        Resource thumbnail = getStore().get(fileHash, size, format);
+        if (thumbnail == null && segmentThumbnailStore != null) {
+            thumbnail = fileThumbnailStore.get(fileHash, size, format);
+        }
+        return thumbnail;
+    }
+
+    private BufferedImage readThumbnail(String fileHash, int size) throws IOException {
+        Resource thumbnail = findThumbnail(fileHash, size, ThumbnailFormat.JPEG);
+        if (thumbnail == null) {
+            return null;
+        }
+        try (InputStream input = thumbnail.getInputStream()) {
+            return ImageIO.read(input);
+        }
+    }
+
+    /**
+     * The smallest stored JPEG rendition whose size is at least {@code minEdge}, decoded, or null
+     * if none is stored. A rendition's longest edge is its size unless the original is smaller.
+     */
+    BufferedImage readRenditionAtLeast(String fileHash, int minEdge) throws IOException {
+        for (int size : thumbnailSizes.stream().filter(s -> s >= minEdge).sorted().toList()) {
+            BufferedImage rendition = readThumbnail(fileHash, size);
+            if (rendition != null) {
+                return rendition;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decode a media file's original (a video's poster frame) with its longest edge bounded to
+     * {@code maxEdge}, using the embedded preview or a reduced-resolution decode where possible.
+     */
+    BufferedImage decodeOriginal(MediaFile mediaFile, int maxEdge) throws IOException {
+        File originalFile = new File(mediaFile.getFilePath());
+        if (!originalFile.exists()) {
+            throw new NoSuchElementException("Original file missing for hash: " + mediaFile.getFileHash());
+        }
+
+        if (mediaFile.getMediaType() == MediaFile.MediaType.VIDEO) {
+            BufferedImage frame = extractVideoFrame(originalFile, maxEdge);
+            if (frame == null) {
+                throw new IOException("Failed to extract frame from video: " + originalFile.getName());
+            }
+            return Math.max(frame.getWidth(), frame.getHeight()) > maxEdge
+                    ? Thumbnails.of(frame).size(maxEdge, maxEdge).asBufferedImage()
+                    : frame;
+        }
+
+        ImageSource source = probeImage(originalFile);
+        if (source.canUsePreview(maxEdge)) {
+            return Thumbnails.of(source.orient(source.preview)).size(maxEdge, maxEdge).asBufferedImage();
+        }
+        return decodeForSize(originalFile, source, maxEdge);
+    }
+
+    /**
+     * Encode as baseline JPEG at the configured quality. Images with an alpha channel (PNG, GIF)
+     * are flattened onto white first, since JPEG has no transparency.
+     */
+    byte[] encodeJpeg(BufferedImage image) throws IOException {
+        BufferedImage rgb = image;
+        if (image.getType() != BufferedImage.TYPE_INT_RGB && image.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+            rgb = drawOnWhite(image, image.getWidth(), BufferedImage.TYPE_INT_RGB);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+        try (ImageOutputStream output = new MemoryCacheImageOutputStream(bytes)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(rgb, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * A failed WebP encode only costs the WebP copy; the JPEG is always there to fall back on.
+     */
+    byte[] encodeWebpQuietly(BufferedImage image, String name) {
+        try {
+            return encodeWebp(image);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to encode WebP {}: {}", name, e.getMessage());
+        } catch (LinkageError e) {
+            // FFmpeg natives missing for this platform; no point trying again for every thumbnail
+            webpEnabled = false;
+            logger.error("WebP encoder unavailable, WebP thumbnails disabled", e);
+        }
+        return null;
+    }
+
+    /**
+     * Encode through FFmpeg's libwebp (bundled with javacv) as lossy WebP at the configured quality.
+     * The frame converter needs 3-byte BGR, and the recorder stretches odd widths to the next even
+     * one, so an odd trailing column is dropped instead.
+     */
+    private byte[] encodeWebp(BufferedImage image) throws IOException {
+        BufferedImage bgr = image;
+        if (image.getType() != BufferedImage.TYPE_3BYTE_BGR || image.getWidth() % 2 != 0) {
+            bgr = drawOnWhite(image, Math.max(2, image.getWidth() & ~1), BufferedImage.TYPE_3BYTE_BGR);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(bytes, bgr.getWidth(), bgr.getHeight());
+             Java2DFrameConverter converter = new Java2DFrameConverter()) {
+            recorder.setFormat("webp");
+            recorder.setVideoCodecName("libwebp");
+            recorder.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+            recorder.setVideoOption("quality", String.valueOf(webpQuality));
+            recorder.start();
+            recorder.record(converter.convert(bgr));
+            recorder.stop();
+        }
+        return bytes.toByteArray();
+    }
+
+    private BufferedImage drawOnWhite(BufferedImage image, int width, int imageType) {
+        BufferedImage opaque = new BufferedImage(width, image.getHeight(), imageType);
+        Graphics2D g = opaque.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, image.getHeight());
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return opaque;
+    }
+
+    /**
+     * Extract a poster frame from the first keyframe at or after 1 second (or 10% into the video
+     * if shorter), scaled by FFmpeg at decode time so that its longest edge is enough for a clean
+     * downscale to {@code size}. Non-key frames are skipped without being decoded. Uses JavaCV
+     * with bundled FFmpeg - no external FFmpeg installation required.
+     */
+    private BufferedImage extractVideoFrame(File videoFile, int size) {
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(videoFile)) {
+            grabber.setVideoOption("skip_frame", "nokey");
+            grabber.start();
+            scaleGrabberOutput(grabber, size * SUBSAMPLING_HEADROOM);
+
+            long durationMicros = grabber.getLengthInTime();
+            long targetTimestamp = durationMicros > 1_000_000 ? 1_000_000 : durationMicros / 10;
+
+            Frame frame = null;
+            if (targetTimestamp > 0) {
+                grabber.setVideoTimestamp(targetTimestamp);
+                frame = grabber.grabImage();
+            }
+            if (frame == null || frame.image == null) {
+                // Seeking past the last keyframe; the first frame is always a keyframe
+                grabber.setVideoTimestamp(0);
+                frame = grabber.grabImage();
+            }
+            if (frame == null || frame.image == null) {
+                logger.error("Could not extract any frame from video: {}", videoFile.getName());
+                return null;
+            }
+
+            // The converter reuses its output image, so hand out a copy
+            BufferedImage image = Java2DFrameConverter.cloneBufferedImage(FRAME_CONVERTER.get().convert(frame));
+            logger.debug("Extracted {}x{} frame from video: {} at timestamp: {}μs",
+                    image.getWidth(), image.getHeight(), videoFile.getName(), frame.timestamp);
+            return image;
         } catch (Exception e) {
             logger.error("Error extracting frame from video: {}", videoFile.getName(), e);
             return null;
         }
     }
 
-    public void deleteThumbnails(String fileHash) {
+    /**
+     * Have the grabber's swscale step shrink frames so the longest edge is at most
+     * {@code maxEdge}, keeping the aspect ratio. Smaller videos are left alone.
+     */
+    private void scaleGrabberOutput(FFmpegFrameGrabber grabber, int maxEdge) {
+        int width = grabber.getImageWidth();
+        int height = grabber.getImageHeight();
+        int longest = Math.max(width, height);
+        if (longest <= maxEdge || width <= 0 || height <= 0) {
+            return;
+        }
+        grabber.setImageWidth(Math.max(2, (int) Math.round((double) width * maxEdge / longest)));
+        grabber.setImageHeight(Math.max(2, (int) Math.round((double) height * maxEdge / longest)));
+    }
+
+    /**
+     * Drop every rendition of a media file from the in-memory cache. The stored renditions stay,
+     * since other media with the same content and the trash still show them.
+     */
+    public void invalidateCachedThumbnails(String fileHash) {
         for (Integer size : thumbnailSizes) {
-            try {
-                String thumbnailFileName = fileHash + "_" + size + ".jpg";
-                Path thumbnailPath = Paths.get(thumbnailBasePath, String.valueOf(size), thumbnailFileName);
-                File thumbnailFile = thumbnailPath.toFile();
+            for (ThumbnailFormat format : ThumbnailFormat.values()) {
+                thumbnailCache.invalidate(ThumbnailStore.fileName(fileHash, size, format));
+            }
+        }
+    }
+
+    /**
+     * Strong entity tag of a rendition: its content hash, size and format plus the encoder
+     * settings, so a client's copy can be validated without reading the thumbnail.
+     */
+    public String getThumbnailETag(String fileHash, int size, ThumbnailFormat format) {
+        if (format == ThumbnailFormat.WEBP
+                && (!webpEnabled || webpFailures.hasFailed(ThumbnailStore.fileName(fileHash, size, format)))) {
+            format = ThumbnailFormat.JPEG;
+        }
+        return getThumbnailETag(ThumbnailStore.fileName(fileHash, size, format));
+    }
 
-                if (thumbnailFile.exists()) {
-                    thumbnailFile.delete();
-                    logger.debug("Deleted thumbnail: {}", thumbnailPath);
+    /**
+     * Entity tag of the rendition stored as {@code thumbnailFileName}, e.g. the resource returned
+     * by {@link #getOrRenderThumbnail}, which may be the JPEG fallback for a WebP request.
+     */
+    public String getThumbnailETag(String thumbnailFileName) {
+        ThumbnailFormat format = ThumbnailFormat.of(thumbnailFileName);
+        int quality = format == ThumbnailFormat.WEBP ? webpQuality : Math.round(JPEG_QUALITY * 100);
+        return "\"" + thumbnailFileName + "-v" + ENCODER_VERSION + "q" + quality + "\"";
+    }
+
+    /**
+     * Identifies the settings renditions are currently produced with. Stored on each media file
+     * so {@link ThumbnailRegenerationService} can tell which thumbnails are stale.
+     */
+    public String getRenditionSignature() {
+        return "v" + ENCODER_VERSION
+                + ";jpeg" + Math.round(JPEG_QUALITY * 100)
+                + ";webp" + (webpEnabled ? webpQuality : 0)
+                + ";" + getEagerSizes().stream().sorted().map(String::valueOf).collect(Collectors.joining(","));
+    }
+
+    /**
+     * Whether every eager rendition of a media file is stored (including the WebP copies when
+     * WebP is enabled).
+     */
+    public boolean hasEagerRenditions(String fileHash) throws IOException {
+        for (int size : getEagerSizes()) {
+            if (findThumbnail(fileHash, size, ThumbnailFormat.JPEG) == null) {
+                return false;
+            }
+            if (webpEnabled && findThumbnail(fileHash, size, ThumbnailFormat.WEBP) == null
+                    && !webpFailures.hasFailed(ThumbnailStore.fileName(fileHash, size, ThumbnailFormat.WEBP))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Re-render the eager sizes of a media file from its original and drop its other sizes, so
+     * they are rendered again with the current settings on their next request. Returns the
+     * default thumbnail path.
+     */
+    public String regenerateThumbnails(MediaFile mediaFile) throws IOException {
+        File originalFile = new File(mediaFile.getFilePath());
+        if (!originalFile.exists()) {
+            throw new NoSuchElementException("Original file missing: " + mediaFile.getFilePath());
+        }
+
+        String thumbnailPath;
+        if (mediaFile.getMediaType() == MediaFile.MediaType.VIDEO) {
+            thumbnailPath = generateVideoThumbnail(originalFile, mediaFile.getFileHash());
+        } else {
+            Map<Integer, String> thumbnails = generateThumbnails(originalFile, mediaFile.getFileHash());
+            thumbnailPath = thumbnails.getOrDefault(300, thumbnails.values().stream().findFirst().orElse(null));
+        }
+
+        List<Integer> eagerSizes = getEagerSizes();
+        deleteRenditions(mediaFile.getFileHash(),
+                thumbnailSizes.stream().filter(size -> !eagerSizes.contains(size)).toList());
+        // Again once everything is written: a request that read the old bytes just before they
+        // were replaced may have cached them after the per-size invalidation
+        invalidateCachedThumbnails(mediaFile.getFileHash());
+        return thumbnailPath;
+    }
+
+    private void deleteRenditions(String fileHash, Collection<Integer> sizes) {
+        List<ThumbnailStore> stores = segmentThumbnailStore != null
+                ? List.of(segmentThumbnailStore, fileThumbnailStore)
+                : List.of(fileThumbnailStore);
+        for (Integer size : sizes) {
+            for (ThumbnailFormat format : ThumbnailFormat.values()) {
+                thumbnailCache.invalidate(ThumbnailStore.fileName(fileHash, size, format));
+                for (ThumbnailStore store : stores) {
+                    try {
+                        store.delete(fileHash, size, format);
+                    } catch (Exception e) {
+                        logger.error("Failed to delete thumbnail for hash: {} and size: {}", fileHash, size, e);
+                    }
                 }
-            } catch (Exception e) {
-                logger.error("Failed to delete thumbnail for hash: {} and size: {}", fileHash, size, e);
             }
         }
     }
+
+    /**
+     * What {@link #probeImage} learned about an original. Width and height are as stored, before
+     * EXIF orientation is applied.
+     */
+    private static class ImageSource {
+        private int width;
+        private int height;
+        private Orientation orientation;
+        private BufferedImage preview;
+
+        /**
+         * The embedded preview is only trusted when it is big enough for the size and has the
+         * same aspect ratio as the original - some cameras pad it to 160x120 with black bars.
+         */
+        boolean canUsePreview(int size) {
+            if (preview == null || Math.max(preview.getWidth(), preview.getHeight()) < size) {
+                return false;
+            }
+            double sourceAspect = (double) width / height;
+            double previewAspect = (double) preview.getWidth() / preview.getHeight();
+            return Math.abs(sourceAspect - previewAspect) / sourceAspect <= PREVIEW_ASPECT_TOLERANCE;
+        }
+
+        BufferedImage orient(BufferedImage image) {
+            if (orientation == null || orientation == Orientation.TOP_LEFT) {
+                return image;
+            }
+            return ExifFilterUtils.getFilterForOrientation(orientation).apply(image);
+        }
+    }
 }
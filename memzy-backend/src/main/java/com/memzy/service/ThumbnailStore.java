@@ -0,0 +1,32 @@
+package com.memzy.service;
+
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+
+/**
+ * Storage for encoded thumbnail renditions, keyed by file hash, size and format.
+ *
+ * {@link FileThumbnailStore} keeps one file per rendition; {@link SegmentThumbnailStore} packs
+ * them into large append-only segment files. Pick one with {@code memzy.media.thumbnail-store}.
+ */
+public interface ThumbnailStore {
+
+    /**
+     * The stored rendition, or null if there is none. The resource's file name is always
+     * {@link #fileName}, so callers can tell the format from it.
+     */
+    Resource get(String fileHash, int size, ThumbnailService.ThumbnailFormat format) throws IOException;
+
+    /**
+     * Store a rendition, replacing any previous one. Returns where it was stored, as a path whose
+     * last element is {@link #fileName}.
+     */
+    String put(String fileHash, int size, ThumbnailService.ThumbnailFormat format, byte[] data) throws IOException;
+
+    void delete(String fileHash, int size, ThumbnailService.ThumbnailFormat format) throws IOException;
+
+    static String fileName(String fileHash, int size, ThumbnailService.ThumbnailFormat format) {
+        return fileHash + "_" + size + "." + format.getExtension();
+    }
+}
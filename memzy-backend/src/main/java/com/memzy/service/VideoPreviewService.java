@@ -0,0 +1,195 @@
+package com.memzy.service;
+
+import com.memzy.model.MediaFile;
+import com.memzy.repository.MediaFileRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+/**
+ * Encodes a short, muted, low-resolution H.264 clip per video for hover previews in the grid,
+ * so previews never touch the original. The clip starts where the poster frame is taken and
+ * is written with the moov atom first (faststart), so it starts playing before it has fully
+ * downloaded.
+ */
+@Service
+public class VideoPreviewService {
+
+    private static final Logger logger = LoggerFactory.getLogger(VideoPreviewService.class);
+
+    @Autowired
+    private MediaFileRepository mediaFileRepository;
+
+    @Value("${memzy.storage.thumbnail-path}")
+    private String thumbnailBasePath;
+
+    @Value("${memzy.media.preview-clips.enabled:true}")
+    private boolean enabled;
+
+    @Value("${memzy.media.preview-clips.seconds:3}")
+    private int clipSeconds;
+
+    // Longest edge of the clip
+    @Value("${memzy.media.preview-clips.size:320}")
+    private int clipSize;
+
+    @Value("${memzy.media.preview-clips.frame-rate:15}")
+    private int frameRate;
+
+    @Value("${memzy.media.preview-clips.bitrate:300000}")
+    private int bitrate;
+
+    @Value("${memzy.media.preview-clips.workers:1}")
+    private int workers;
+
+    @Value("${memzy.media.preview-clips.queue-capacity:500}")
+    private int queueCapacity;
+
+    private BackgroundJobQueue jobs;
+
+    @PostConstruct
+    public void init() {
+        jobs = new BackgroundJobQueue("preview clip", workers, queueCapacity, this::getFailureMarkerPath);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobs.shutdown();
+    }
+
+    /**
+     * Queue a preview clip for a video. Dropped when the queue is full; the clip is queued again
+     * the next time a client asks for it.
+     */
+    public void submit(String fileHash) {
+        if (enabled) {
+            jobs.submit(fileHash, () -> generatePreview(fileHash));
+        }
+    }
+
+    /**
+     * The preview clip of a video, or null if it has not been encoded yet.
+     */
+    public Path getPreview(String fileHash) {
+        Path clip = getPreviewPath(fileHash);
+        return Files.exists(clip) ? clip : null;
+    }
+
+    /**
+     * Whether encoding a clip for this video has failed before, e.g. because it is corrupt or in
+     * a codec FFmpeg cannot decode. Such videos are not queued again; delete the marker file to
+     * retry.
+     */
+    public boolean hasFailed(String fileHash) {
+        return jobs.hasFailed(fileHash);
+    }
+
+    public void generatePreview(String fileHash) throws IOException {
+        MediaFile mediaFile = mediaFileRepository.findFirstByFileHash(fileHash)
+                .orElseThrow(() -> new NoSuchElementException("No media file for hash: " + fileHash));
+        if (mediaFile.getMediaType() != MediaFile.MediaType.VIDEO) {
+            throw new IOException("Not a video: " + fileHash);
+        }
+        File videoFile = new File(mediaFile.getFilePath());
+
+        Path target = getPreviewPath(fileHash);
+        Files.createDirectories(target.getParent());
+        Path partial = target.resolveSibling(target.getFileName() + "." + UUID.randomUUID() + ".part");
+
+        long startedAt = System.currentTimeMillis();
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(videoFile)) {
+            grabber.start();
+
+            int width = grabber.getImageWidth();
+            int height = grabber.getImageHeight();
+            if (width <= 0 || height <= 0) {
+                throw new IOException("Video has no dimensions: " + videoFile.getName());
+            }
+            // H.264 with 4:2:0 chroma needs even dimensions
+            double scale = Math.min(1.0, (double) clipSize / Math.max(width, height));
+            int clipWidth = Math.max(2, (int) Math.round(width * scale) & ~1);
+            int clipHeight = Math.max(2, (int) Math.round(height * scale) & ~1);
+            grabber.setImageWidth(clipWidth);
+            grabber.setImageHeight(clipHeight);
+
+            // Start where the poster is taken, unless that leaves less than a full clip
+            long durationMicros = grabber.getLengthInTime();
+            long clipMicros = clipSeconds * 1_000_000L;
+            long startMicros = durationMicros > clipMicros + 1_000_000 ? 1_000_000 : 0;
+            if (startMicros > 0) {
+                grabber.setVideoTimestamp(startMicros);
+            }
+
+            int frames = 0;
+            try (FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(partial.toFile(), clipWidth, clipHeight, 0)) {
+                recorder.setFormat("mp4");
+                recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
+                recorder.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+                recorder.setFrameRate(frameRate);
+                recorder.setGopSize(frameRate);
+                recorder.setVideoBitrate(bitrate);
+                recorder.setOption("movflags", "+faststart");
+                recorder.start();
+
+                // Resample to the clip frame rate: each source frame goes to the output slot its
+                // timestamp falls in, keeping the first one per slot. Slots without a source frame
+                // are left as gaps, so playback speed stays right for low frame rate sources.
+                long lastSlot = -1;
+                Frame frame;
+                while ((frame = grabber.grabImage()) != null && frame.timestamp < startMicros + clipMicros) {
+                    long slot = (frame.timestamp - startMicros) * frameRate / 1_000_000;
+                    if (frame.image == null || slot <= lastSlot) {
+                        continue;
+                    }
+                    recorder.setFrameNumber((int) slot);
+                    recorder.record(frame);
+                    lastSlot = slot;
+                    frames++;
+                }
+                recorder.stop();
+            }
+            if (frames == 0) {
+                throw new IOException("No frames decoded from video: " + videoFile.getName());
+            }
+
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.deleteIfExists(getFailureMarkerPath(fileHash));
+            logger.debug("Encoded {}-frame {}x{} preview clip for {} in {}ms",
+                    frames, clipWidth, clipHeight, fileHash, System.currentTimeMillis() - startedAt);
+        } finally {
+            Files.deleteIfExists(partial);
+        }
+    }
+
+    /**
+     * {@code previews/ab/<hash>.mp4}, sharded like the thumbnails.
+     */
+    private Path getPreviewPath(String fileHash) {
+        return ShardedPaths.resolve(Paths.get(thumbnailBasePath, "previews"), fileHash, fileHash + ".mp4");
+    }
+
+    /**
+     * {@code previews/ab/<hash>.failed}, next to where the clip would be.
+     */
+    private Path getFailureMarkerPath(String fileHash) {
+        return getPreviewPath(fileHash).resolveSibling(fileHash + ".failed");
+    }
+}
@@ -0,0 +1,257 @@
+package com.memzy.service;
+
+import com.memzy.model.MediaFile;
+import com.memzy.repository.MediaFileRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.Java2DFrameConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+/**
+ * Builds the seek-bar preview for a video: one sprite sheet of evenly spaced frames plus a
+ * WebVTT track mapping each time range to its tile ({@code <hash>.jpg#xywh=x,y,w,h}).
+ *
+ * Frames are sampled in a single forward pass over the video's keyframes, scaled to tile size by
+ * FFmpeg as they are decoded. Gaps much longer than a GOP are skipped with a forward seek rather
+ * than read through. Work runs on one low-priority thread so it never competes with ingest.
+ */
+@Service
+public class VideoSpriteService {
+
+    private static final Logger logger = LoggerFactory.getLogger(VideoSpriteService.class);
+
+    // Seek rather than read through when the next sample is further ahead than this
+    private static final long SEEK_AHEAD_MICROS = 10_000_000;
+
+    @Autowired
+    private MediaFileRepository mediaFileRepository;
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
+    @Value("${memzy.storage.thumbnail-path}")
+    private String thumbnailBasePath;
+
+    @Value("${memzy.media.sprites.enabled:true}")
+    private boolean enabled;
+
+    @Value("${memzy.media.sprites.max-frames:100}")
+    private int maxFrames;
+
+    @Value("${memzy.media.sprites.min-interval-seconds:2}")
+    private int minIntervalSeconds;
+
+    @Value("${memzy.media.sprites.tile-width:160}")
+    private int tileWidth;
+
+    @Value("${memzy.media.sprites.columns:10}")
+    private int columns;
+
+    @Value("${memzy.media.sprites.queue-capacity:500}")
+    private int queueCapacity;
+
+    private BackgroundJobQueue jobs;
+
+    @PostConstruct
+    public void init() {
+        jobs = new BackgroundJobQueue("video sprites", 1, queueCapacity, fileHash -> getSpritePath(fileHash, "failed"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobs.shutdown();
+    }
+
+    /**
+     * Queue sprite generation for a video. Dropped when the queue is full; the sprite is queued
+     * again the next time a client asks for it.
+     */
+    public void submit(String fileHash) {
+        if (enabled) {
+            jobs.submit(fileHash, () -> generateSprites(fileHash));
+        }
+    }
+
+    /**
+     * The WebVTT track for a video, or null if its sprites have not been generated. The track
+     * is written last, so its presence means the sheet is there too.
+     */
+    public Path getTrack(String fileHash) {
+        Path track = getSpritePath(fileHash, "vtt");
+        return Files.exists(track) ? track : null;
+    }
+
+    /**
+     * The sprite sheet in the preferred format, falling back to JPEG. Null if not generated.
+     */
+    public Path getSheet(String fileHash, ThumbnailService.ThumbnailFormat format) {
+        Path sheet = getSpritePath(fileHash, format.getExtension());
+        if (Files.exists(sheet)) {
+            return sheet;
+        }
+        Path jpeg = getSpritePath(fileHash, ThumbnailService.ThumbnailFormat.JPEG.getExtension());
+        return Files.exists(jpeg) ? jpeg : null;
+    }
+
+    /**
+     * Whether generating sprites for this video has failed before, e.g. because it is corrupt,
+     * in a codec FFmpeg cannot decode, or not a video at all. Such hashes are not queued again;
+     * delete the marker file to retry.
+     */
+    public boolean hasFailed(String fileHash) {
+        return jobs.hasFailed(fileHash);
+    }
+
+    public void generateSprites(String fileHash) throws IOException {
+        MediaFile mediaFile = mediaFileRepository.findFirstByFileHash(fileHash)
+                .orElseThrow(() -> new NoSuchElementException("No media file for hash: " + fileHash));
+        if (mediaFile.getMediaType() != MediaFile.MediaType.VIDEO) {
+            throw new IOException("Not a video: " + fileHash);
+        }
+        File videoFile = new File(mediaFile.getFilePath());
+
+        long startedAt = System.currentTimeMillis();
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(videoFile);
+             Java2DFrameConverter converter = new Java2DFrameConverter()) {
+            grabber.setVideoOption("skip_frame", "nokey");
+            grabber.start();
+
+            long durationMicros = grabber.getLengthInTime();
+            int width = grabber.getImageWidth();
+            int height = grabber.getImageHeight();
+            if (durationMicros <= 0 || width <= 0 || height <= 0) {
+                throw new IOException("Video has no duration or dimensions: " + videoFile.getName());
+            }
+
+            int tileHeight = Math.max(2, (int) Math.round((double) height * tileWidth / width) & ~1);
+            grabber.setImageWidth(tileWidth);
+            grabber.setImageHeight(tileHeight);
+
+            long intervalMicros = Math.max(minIntervalSeconds * 1_000_000L, ceilDiv(durationMicros, maxFrames));
+            int frameCount = (int) ceilDiv(durationMicros, intervalMicros);
+            int sheetColumns = Math.min(columns, frameCount);
+            BufferedImage sheet = new BufferedImage(sheetColumns * tileWidth,
+                    (int) ceilDiv(frameCount, sheetColumns) * tileHeight, BufferedImage.TYPE_3BYTE_BGR);
+
+            // Each sample takes the first keyframe at or after its time
+            int filled = 0;
+            Graphics2D g = sheet.createGraphics();
+            try {
+                while (filled < frameCount) {
+                    long sampleTime = filled * intervalMicros;
+                    if (sampleTime - grabber.getTimestamp() > SEEK_AHEAD_MICROS) {
+                        grabber.setVideoTimestamp(sampleTime);
+                    }
+                    Frame frame = grabber.grabImage();
+                    if (frame == null) {
+                        break;
+                    }
+                    if (frame.image == null || frame.timestamp < sampleTime) {
+                        continue;
+                    }
+                    BufferedImage image = converter.convert(frame);
+                    do {
+                        g.drawImage(image, (filled % sheetColumns) * tileWidth, (filled / sheetColumns) * tileHeight,
+                                tileWidth, tileHeight, null);
+                        filled++;
+                    } while (filled < frameCount && filled * intervalMicros <= frame.timestamp);
+                }
+            } finally {
+                g.dispose();
+            }
+            if (filled == 0) {
+                throw new IOException("Could not extract any frame from video: " + videoFile.getName());
+            }
+
+            int rows = (int) ceilDiv(filled, sheetColumns);
+            if (rows * tileHeight < sheet.getHeight()) {
+                BufferedImage trimmed = new BufferedImage(sheet.getWidth(), rows * tileHeight, BufferedImage.TYPE_3BYTE_BGR);
+                Graphics2D trim = trimmed.createGraphics();
+                trim.drawImage(sheet, 0, 0, null);
+                trim.dispose();
+                sheet = trimmed;
+            }
+
+            writeSpriteFile(fileHash, "jpg", thumbnailService.encodeJpeg(sheet));
+            if (thumbnailService.isWebpEnabled()) {
+                byte[] webp = thumbnailService.encodeWebpQuietly(sheet, fileHash + " sprite sheet");
+                if (webp != null) {
+                    writeSpriteFile(fileHash, "webp", webp);
+                }
+            }
+            String track = buildTrack(fileHash, filled, sheetColumns, tileHeight, intervalMicros, durationMicros);
+            writeSpriteFile(fileHash, "vtt", track.getBytes(StandardCharsets.UTF_8));
+            Files.deleteIfExists(getSpritePath(fileHash, "failed"));
+
+            logger.debug("Generated {}-frame sprite sheet for {} in {}ms",
+                    filled, fileHash, System.currentTimeMillis() - startedAt);
+        }
+    }
+
+    private String buildTrack(String fileHash, int frameCount, int sheetColumns, int tileHeight,
+                              long intervalMicros, long durationMicros) {
+        // Relative to the track's own URL, so the sheet is fetched from the same endpoint
+        String sheetName = fileHash + ".jpg";
+        StringBuilder track = new StringBuilder("WEBVTT\n");
+        for (int i = 0; i < frameCount; i++) {
+            long start = i * intervalMicros;
+            long end = i == frameCount - 1 ? Math.max(durationMicros, start) : (i + 1) * intervalMicros;
+            track.append('\n')
+                    .append(formatTimestamp(start)).append(" --> ").append(formatTimestamp(end)).append('\n')
+                    .append(sheetName).append("#xywh=")
+                    .append((i % sheetColumns) * tileWidth).append(',')
+                    .append((i / sheetColumns) * tileHeight).append(',')
+                    .append(tileWidth).append(',')
+                    .append(tileHeight).append('\n');
+        }
+        return track.toString();
+    }
+
+    private static String formatTimestamp(long micros) {
+        long millis = micros / 1000;
+        return String.format("%02d:%02d:%02d.%03d",
+                millis / 3_600_000, (millis / 60_000) % 60, (millis / 1000) % 60, millis % 1000);
+    }
+
+    private void writeSpriteFile(String fileHash, String extension, byte[] data) throws IOException {
+        Path target = getSpritePath(fileHash, extension);
+        Files.createDirectories(target.getParent());
+        Path partial = target.resolveSibling(target.getFileName() + "." + UUID.randomUUID() + ".part");
+        try {
+            Files.write(partial, data);
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+    }
+
+    /**
+     * {@code sprites/ab/<hash>.<ext>}, sharded like the thumbnails.
+     */
+    private Path getSpritePath(String fileHash, String extension) {
+        return ShardedPaths.resolve(Paths.get(thumbnailBasePath, "sprites"), fileHash, fileHash + "." + extension);
+    }
+
+    private static long ceilDiv(long dividend, long divisor) {
+        return (dividend + divisor - 1) / divisor;
+    }
+}
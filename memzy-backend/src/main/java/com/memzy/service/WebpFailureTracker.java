@@ -0,0 +1,45 @@
+package com.memzy.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * WebP thumbnails and renditions whose encode failed, by file name. Requests for them get the
+ * JPEG instead of rendering again. Kept in memory only, so each is retried once after a restart.
+ *
+ * Bounded with least-recently-used eviction: once full, the failure looked up least recently is
+ * forgotten and retried on its next request, so new failures are always recorded.
+ */
+@Component
+public class WebpFailureTracker {
+
+    private static final int MAX_ENTRIES = 10_000;
+
+    // Access order, so lookups keep frequently requested failures; guarded by itself
+    private final LinkedHashMap<String, Boolean> failures = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    public boolean hasFailed(String fileName) {
+        synchronized (failures) {
+            return failures.get(fileName) != null;
+        }
+    }
+
+    public void recordFailure(String fileName) {
+        synchronized (failures) {
+            failures.put(fileName, Boolean.TRUE);
+        }
+    }
+
+    public void clearFailure(String fileName) {
+        synchronized (failures) {
+            failures.remove(fileName);
+        }
+    }
+}
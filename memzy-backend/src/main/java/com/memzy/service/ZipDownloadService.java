@@ -0,0 +1,268 @@
+package com.memzy.service;
+
+import com.memzy.model.Album;
+import com.memzy.model.MediaFile;
+import com.memzy.repository.AlbumRepository;
+import com.memzy.repository.MediaFileRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams originals as one ZIP archive, for multi-selections and whole albums.
+ *
+ * Entries are read straight from the originals and written to the response as they are read,
+ * so memory use does not depend on the size of the archive and nothing is staged on disk.
+ * Photos and videos are already compressed and are stored as-is; deflating them would cost CPU
+ * for no gain. Archives past 4GB or 65535 entries are written as ZIP64.
+ */
+@Service
+public class ZipDownloadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ZipDownloadService.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Formats that are compressed already; everything else (BMP, TIFF, ...) is deflated
+    private static final Set<String> STORED_EXTENSIONS = Set.of(
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "heif", "avif",
+            "mp4", "m4v", "mov", "mkv", "webm", "avi", "flv", "wmv", "3gp");
+
+    @Autowired
+    private MediaFileRepository mediaFileRepository;
+
+    @Autowired
+    private AlbumRepository albumRepository;
+
+    /**
+     * An original to put in the archive under {@code name}.
+     */
+    public record Entry(String name, Path path, long lastModified) {
+    }
+
+    /**
+     * Entries for the given media files of the current user, in the order asked for. Duplicate
+     * ids are ignored; an id that is missing, deleted or someone else's fails the whole request.
+     */
+    @Transactional(readOnly = true)
+    public List<Entry> getMediaEntries(Collection<Long> mediaIds) {
+        Set<Long> ids = new LinkedHashSet<>(mediaIds);
+        Map<Long, MediaFile> mediaFiles = mediaFileRepository.findAllById(ids).stream()
+                .collect(Collectors.toMap(MediaFile::getId, Function.identity()));
+
+        String username = SecurityContextHolder.getContext().getAuthentication().getName();
+        List<MediaFile> selected = new ArrayList<>();
+        for (Long id : ids) {
+            MediaFile mediaFile = mediaFiles.get(id);
+            if (mediaFile == null || Boolean.TRUE.equals(mediaFile.getIsDeleted())) {
+                throw new RuntimeException("Media file not found: " + id);
+            }
+            if (!mediaFile.getOwner().getUsername().equals(username)) {
+                throw new RuntimeException("Unauthorized to download this media");
+            }
+            selected.add(mediaFile);
+        }
+        return toEntries(selected);
+    }
+
+    /**
+     * Entries for all media in an album of the current user, oldest first.
+     */
+    @Transactional(readOnly = true)
+    public List<Entry> getAlbumEntries(Long albumId) {
+        Album album = albumRepository.findById(albumId)
+                .orElseThrow(() -> new RuntimeException("Album not found"));
+
+        String username = SecurityContextHolder.getContext().getAuthentication().getName();
+        if (!album.getOwner().getUsername().equals(username)) {
+            throw new RuntimeException("Unauthorized to download this album");
+        }
+
+        List<MediaFile> mediaFiles = album.getMediaFiles().stream()
+                .filter(media -> !Boolean.TRUE.equals(media.getIsDeleted()))
+                .sorted(Comparator.comparing(ZipDownloadService::takenAt, Comparator.nullsLast(Comparator.naturalOrder()))
+                        .thenComparing(MediaFile::getId))
+                .collect(Collectors.toList());
+        return toEntries(mediaFiles);
+    }
+
+    /**
+     * Send {@code entries} as a ZIP attachment named {@code archiveName}. The archive is written
+     * while it is sent, so its length is not known up front and the response is chunked.
+     */
+    public void stream(List<Entry> entries, String archiveName, HttpServletResponse response) throws IOException {
+        response.setContentType("application/zip");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                .filename(archiveName.replaceAll("[\\\\/:*?\"<>|\\p{Cntrl}]", "_"), StandardCharsets.UTF_8)
+                .build()
+                .toString());
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "no-store");
+        try {
+            writeZip(entries, response.getOutputStream());
+        } catch (IOException e) {
+            if (!response.isCommitted()) {
+                throw e;
+            }
+            // Usually the client cancelled the download
+            logger.debug("ZIP download of {} files aborted: {}", entries.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * Write {@code entries} as a ZIP archive to {@code out}. Does not close {@code out}.
+     */
+    public void writeZip(List<Entry> entries, OutputStream out) throws IOException {
+        long startedAt = System.currentTimeMillis();
+        long bytes = 0;
+        ZipOutputStream zip = new ZipOutputStream(out);
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        for (Entry entry : entries) {
+            try (FileChannel channel = FileChannel.open(entry.path(), StandardOpenOption.READ)) {
+                long size = channel.size();
+                ZipEntry zipEntry = new ZipEntry(entry.name());
+                zipEntry.setTime(entry.lastModified());
+                if (isStored(entry.name())) {
+                    // Stored entries carry size and CRC in their header, ahead of the data. The
+                    // extra read mostly hits the page cache, and CRC32 runs at memory speed.
+                    zipEntry.setMethod(ZipEntry.STORED);
+                    zipEntry.setSize(size);
+                    zipEntry.setCompressedSize(size);
+                    zipEntry.setCrc(crc32(channel, size, buffer));
+                }
+                zip.putNextEntry(zipEntry);
+                copy(channel, size, buffer, zip);
+                zip.closeEntry();
+                bytes += size;
+            }
+        }
+        zip.finish();
+        zip.flush();
+        logger.info("Streamed ZIP of {} files ({} bytes) in {}ms",
+                entries.size(), bytes, System.currentTimeMillis() - startedAt);
+    }
+
+    private List<Entry> toEntries(List<MediaFile> mediaFiles) {
+        Map<String, Integer> usedNames = new HashMap<>();
+        List<Entry> entries = new ArrayList<>();
+        for (MediaFile mediaFile : mediaFiles) {
+            Path path = Paths.get(mediaFile.getFilePath());
+            if (!Files.isRegularFile(path)) {
+                logger.warn("Skipping missing original of media {} in ZIP download: {}", mediaFile.getId(), path);
+                continue;
+            }
+            LocalDateTime takenAt = takenAt(mediaFile);
+            long lastModified = takenAt != null
+                    ? takenAt.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                    : System.currentTimeMillis();
+            entries.add(new Entry(uniqueName(entryName(mediaFile), usedNames), path, lastModified));
+        }
+        return entries;
+    }
+
+    private static LocalDateTime takenAt(MediaFile mediaFile) {
+        return mediaFile.getDateTaken() != null ? mediaFile.getDateTaken() : mediaFile.getCreatedAt();
+    }
+
+    /**
+     * The uploaded file name without any directory part, which unzip tools would otherwise
+     * turn into paths (or "../" escapes).
+     */
+    private static String entryName(MediaFile mediaFile) {
+        String name = mediaFile.getFileName();
+        if (name != null) {
+            name = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1).strip();
+        }
+        if (name == null || name.isEmpty() || name.equals(".") || name.equals("..")) {
+            name = Paths.get(mediaFile.getFilePath()).getFileName().toString();
+        }
+        return name;
+    }
+
+    /**
+     * {@code name}, or {@code name (2)}, {@code name (3)}, ... before the extension when an
+     * earlier entry already has it. Compared case-insensitively, as most file systems do.
+     * {@code usedNames} maps each name taken to the next suffix to try for it, so a thousand
+     * "image.jpg" do not each count up from 2.
+     */
+    private static String uniqueName(String name, Map<String, Integer> usedNames) {
+        String key = name.toLowerCase(Locale.ROOT);
+        if (usedNames.putIfAbsent(key, 2) == null) {
+            return name;
+        }
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        for (int i = usedNames.get(key); ; i++) {
+            String candidate = base + " (" + i + ")" + extension;
+            if (usedNames.putIfAbsent(candidate.toLowerCase(Locale.ROOT), 2) == null) {
+                usedNames.put(key, i + 1);
+                return candidate;
+            }
+        }
+    }
+
+    private static boolean isStored(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && STORED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    private static long crc32(FileChannel channel, long size, ByteBuffer buffer) throws IOException {
+        CRC32 crc = new CRC32();
+        long position = 0;
+        while (position < size) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), size - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("File truncated while zipping");
+            }
+            crc.update(buffer.array(), 0, read);
+            position += read;
+        }
+        return crc.getValue();
+    }
+
+    private static void copy(FileChannel channel, long size, ByteBuffer buffer, OutputStream out) throws IOException {
+        long position = 0;
+        while (position < size) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), size - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("File truncated while zipping");
+            }
+            out.write(buffer.array(), 0, read);
+            position += read;
+        }
+    }
+}
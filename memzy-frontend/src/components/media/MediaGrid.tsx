@@ -1,4 +1,4 @@
-import React from 'react';
+import React, { useState } from 'react';
 import {
   Grid,
   Card,
@@ -33,18 +33,35 @@ const MediaGrid: React.FC<MediaGridProps> = ({
   onFavoriteToggle,
   onDelete,
 }) => {
+  // Only the hovered video tile loads its preview clip
+  const [previewingId, setPreviewingId] = useState<number | null>(null);
+  const [failedPreviews, setFailedPreviews] = useState<Set<number>>(new Set());
+
+  const canPreview = (media: MediaFile) =>
+    media.mediaType === MediaType.VIDEO && !!media.thumbnailPath && !failedPreviews.has(media.id);
+
   const getThumbnailUrl = (media: MediaFile) => {
     if (media.thumbnailPath) {
       return mediaService.getThumbnailUrl(media.thumbnailPath, 600);
     }
+    if (media.processingStatus === 'PENDING' || media.processingStatus === 'PROCESSING') {
+      return 'https://via.placeholder.com/600?text=Processing...';
+    }
     return 'https://via.placeholder.com/600?text=No+Thumbnail';
   };
 
+  const getPlaceholderBackground = (media: MediaFile) => {
+    const placeholderUrl = media.blurHash ? mediaService.getPlaceholderUrl(media.blurHash) : undefined;
+    return placeholderUrl ? `url(${placeholderUrl})` : undefined;
+  };
+
   return (
     <Grid container spacing={2}>
       {mediaFiles.map((media) => (
         <Grid item xs={12} sm={6} md={4} lg={3} key={media.id}>
           <Card
+            onMouseEnter={() => canPreview(media) && setPreviewingId(media.id)}
+            onMouseLeave={() => setPreviewingId((id) => (id === media.id ? null : id))}
             sx={{
               position: 'relative',
               cursor: 'pointer',
@@ -58,11 +75,22 @@ const MediaGrid: React.FC<MediaGridProps> = ({
               },
             }}
           >
-            <Box sx={{ position: 'relative', paddingTop: '100%', bgcolor: 'background.default' }}>
+            <Box
+              sx={{
+                position: 'relative',
+                paddingTop: '100%',
+                bgcolor: 'background.default',
+                // Blurred placeholder from the list response, painted before the thumbnail arrives
+                backgroundImage: getPlaceholderBackground(media),
+                backgroundSize: 'cover',
+                backgroundPosition: 'center',
+              }}
+            >
               <CardMedia
                 component="img"
                 image={getThumbnailUrl(media)}
                 alt={media.fileName}
+                loading="lazy"
                 sx={{
                   position: 'absolute',
                   top: 0,
@@ -74,7 +102,31 @@ const MediaGrid: React.FC<MediaGridProps> = ({
                 onClick={() => onMediaClick(media)}
               />
 
-              {media.mediaType === MediaType.VIDEO && (
+              {previewingId === media.id && canPreview(media) && (
+                <Box
+                  component="video"
+                  src={mediaService.getPreviewClipUrl(media.thumbnailPath!)}
+                  poster={getThumbnailUrl(media)}
+                  muted
+                  loop
+                  autoPlay
+                  playsInline
+                  preload="auto"
+                  onClick={() => onMediaClick(media)}
+                  // Not encoded yet (or not available): keep showing the poster from now on
+                  onError={() => setFailedPreviews((failed) => new Set(failed).add(media.id))}
+                  sx={{
+                    position: 'absolute',
+                    top: 0,
+                    left: 0,
+                    width: '100%',
+                    height: '100%',
+                    objectFit: 'cover',
+                  }}
+                />
+              )}
+
+              {media.mediaType === MediaType.VIDEO && previewingId !== media.id && (
                 <Box
                   sx={{
                     position: 'absolute',
@@ -16,7 +16,11 @@ import {
 } from '@mui/material';
 import { CloudUpload, Close, CheckCircle, Error as ErrorIcon } from '@mui/icons-material';
 import { useSnackbar } from 'notistack';
-import mediaService from '@/services/mediaService';
+import mediaService, {
+  BULK_UPLOAD_MAX_BYTES,
+  BULK_UPLOAD_MAX_FILES,
+  CHUNKED_UPLOAD_THRESHOLD,
+} from '@/services/mediaService';
 
 interface MediaUploadProps {
   open: boolean;
@@ -55,44 +59,82 @@ const MediaUpload: React.FC<MediaUploadProps> = ({ open, onClose, onUploadComple
     disabled: isUploading,
   });
 
+  const setUploadStatus = (index: number, changes: Partial<UploadStatus>) => {
+    setUploads((prev) =>
+      prev.map((upload, i) => (i === index ? { ...upload, ...changes } : upload))
+    );
+  };
+
   const handleUpload = async () => {
     setIsUploading(true);
 
-    for (let i = 0; i < uploads.length; i++) {
-      if (uploads[i].status === 'success') continue;
-
-      setUploads((prev) =>
-        prev.map((upload, index) =>
-          index === i ? { ...upload, status: 'uploading', progress: 50 } : upload
-        )
-      );
+    const pending = uploads
+      .map((upload, index) => ({ upload, index }))
+      .filter(({ upload }) => upload.status !== 'success');
 
+    // Large files go one by one through the resumable chunked upload
+    for (const { upload, index } of pending.filter(({ upload }) => upload.file.size > CHUNKED_UPLOAD_THRESHOLD)) {
+      setUploadStatus(index, { status: 'uploading', progress: 50 });
       try {
-        await mediaService.uploadMedia(uploads[i].file);
+        await mediaService.uploadMedia(upload.file);
+        setUploadStatus(index, { status: 'success', progress: 100 });
+        enqueueSnackbar(`${upload.file.name} uploaded successfully`, { variant: 'success' });
+      } catch (error: any) {
+        setUploadStatus(index, { status: 'error', progress: 0, error: error.message || 'Upload failed' });
+        enqueueSnackbar(`Failed to upload ${upload.file.name}`, { variant: 'error' });
+      }
+    }
 
-        setUploads((prev) =>
-          prev.map((upload, index) =>
-            index === i ? { ...upload, status: 'success', progress: 100 } : upload
-          )
-        );
+    // Small files are batched into bulk requests that report each file as it finishes
+    const small = pending.filter(({ upload }) => upload.file.size <= CHUNKED_UPLOAD_THRESHOLD);
+    let succeeded = 0;
+    let failed = 0;
+    while (small.length > 0) {
+      const batch: typeof small = [];
+      let batchBytes = 0;
+      while (
+        small.length > 0 &&
+        batch.length < BULK_UPLOAD_MAX_FILES &&
+        (batch.length === 0 || batchBytes + small[0].upload.file.size <= BULK_UPLOAD_MAX_BYTES)
+      ) {
+        const next = small.shift()!;
+        batchBytes += next.upload.file.size;
+        batch.push(next);
+      }
 
-        enqueueSnackbar(`${uploads[i].file.name} uploaded successfully`, { variant: 'success' });
-      } catch (error: any) {
-        setUploads((prev) =>
-          prev.map((upload, index) =>
-            index === i
-              ? {
-                  ...upload,
-                  status: 'error',
-                  progress: 0,
-                  error: error.message || 'Upload failed',
-                }
-              : upload
-          )
+      batch.forEach(({ index }) => setUploadStatus(index, { status: 'uploading', progress: 50 }));
+      const reported = new Set<number>();
+      try {
+        await mediaService.uploadMediaBulk(
+          batch.map(({ upload }) => upload.file),
+          (result) => {
+            const { index } = batch[result.index];
+            reported.add(result.index);
+            if (result.success) {
+              succeeded++;
+              setUploadStatus(index, { status: 'success', progress: 100 });
+            } else {
+              failed++;
+              setUploadStatus(index, { status: 'error', progress: 0, error: result.error || 'Upload failed' });
+            }
+          }
         );
-
-        enqueueSnackbar(`Failed to upload ${uploads[i].file.name}`, { variant: 'error' });
+      } catch (error: any) {
+        enqueueSnackbar(error.message || 'Upload failed', { variant: 'error' });
       }
+      batch.forEach(({ index }, position) => {
+        if (!reported.has(position)) {
+          failed++;
+          setUploadStatus(index, { status: 'error', progress: 0, error: 'Upload failed' });
+        }
+      });
+    }
+
+    if (succeeded > 0) {
+      enqueueSnackbar(`${succeeded} files uploaded successfully`, { variant: 'success' });
+    }
+    if (failed > 0) {
+      enqueueSnackbar(`Failed to upload ${failed} files`, { variant: 'error' });
     }
 
     setIsUploading(false);
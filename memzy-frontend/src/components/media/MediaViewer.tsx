@@ -58,11 +58,13 @@ const MediaViewer: React.FC<MediaViewerProps> = ({
   const [tabValue, setTabValue] = useState(0);
   const [editorOpen, setEditorOpen] = useState(false);
   const [shareDialogOpen, setShareDialogOpen] = useState(false);
+  const [hlsFailed, setHlsFailed] = useState(false);
 
   useEffect(() => {
     if (media) {
       setCurrentTags(media.tags);
       setTabValue(0);
+      setHlsFailed(false);
     }
   }, [media]);
 
@@ -76,6 +78,12 @@ const MediaViewer: React.FC<MediaViewerProps> = ({
 
   const isVideo = media.mediaType === MediaType.VIDEO;
   const mediaUrl = mediaService.getOriginalUrl(media.filePath);
+  // Stream videos over HLS; fall back to the original (its faststart copy if there is one) if
+  // the stream cannot be played
+  const videoUrl =
+    isVideo && media.thumbnailPath && !hlsFailed
+      ? mediaService.getHlsUrl(media.thumbnailPath)
+      : mediaService.getPlaybackUrl(media.filePath);
 
   const handleDownload = () => {
     const link = document.createElement('a');
@@ -170,7 +178,11 @@ const MediaViewer: React.FC<MediaViewerProps> = ({
           >
             {isVideo ? (
               <ReactPlayer
-                url={mediaUrl}
+                url={videoUrl}
+                onError={(_error: any, data?: any) => {
+                  // hls.js reports recoverable errors (e.g. a retried segment) too
+                  if (!data || data.fatal) setHlsFailed(true);
+                }}
                 controls
                 playing
                 width="100%"
@@ -9,7 +9,7 @@ import {
   Breadcrumbs,
   Link as MuiLink,
 } from '@mui/material';
-import { Add, ArrowBack, Edit, Folder } from '@mui/icons-material';
+import { Add, ArrowBack, Download, Edit, Folder } from '@mui/icons-material';
 import { useSnackbar } from 'notistack';
 import { useNavigate, useParams, Link } from 'react-router-dom';
 import MainLayout from '@/components/layout/MainLayout';
@@ -32,6 +32,7 @@ const AlbumDetailPage: React.FC = () => {
   const [selectedMedia, setSelectedMedia] = useState<MediaFile | null>(null);
   const [selectedMediaIndex, setSelectedMediaIndex] = useState(0);
   const [addMediaDialogOpen, setAddMediaDialogOpen] = useState(false);
+  const [downloading, setDownloading] = useState(false);
 
   const loadAlbum = async () => {
     if (!id) return;
@@ -117,6 +118,18 @@ const AlbumDetailPage: React.FC = () => {
     }
   };
 
+  const handleDownload = async () => {
+    if (!album) return;
+    try {
+      setDownloading(true);
+      await albumService.downloadAlbum(album);
+    } catch (error: any) {
+      enqueueSnackbar(error.message || 'Failed to download album', { variant: 'error' });
+    } finally {
+      setDownloading(false);
+    }
+  };
+
   const handleMediaAdded = () => {
     loadMedia();
     loadAlbum();
@@ -162,6 +175,14 @@ const AlbumDetailPage: React.FC = () => {
             </Box>
           </Box>
           <Box sx={{ display: 'flex', gap: 1 }}>
+            <Button
+              variant="outlined"
+              startIcon={downloading ? <CircularProgress size={16} /> : <Download />}
+              onClick={handleDownload}
+              disabled={downloading || mediaFiles.length === 0}
+            >
+              Download
+            </Button>
             <Button variant="outlined" startIcon={<Edit />}>
               Edit Album
             </Button>
@@ -1,5 +1,6 @@
 import { Album, MediaFile } from '@/types';
 import apiService from './api';
+import { startDownload } from '@/utils/download';
 
 class AlbumService {
   async createAlbum(name: string, description?: string, parentId?: number): Promise<Album> {
@@ -27,6 +28,10 @@ class AlbumService {
     return response.data;
   }
 
+  async downloadAlbum(album: Album): Promise<void> {
+    await startDownload(`/albums/${album.id}/download`, 'GET');
+  }
+
   async updateAlbum(id: number, name: string, description?: string): Promise<Album> {
     const response = await apiService.put<Album>(`/albums/${id}`, {
       name,
@@ -1,5 +1,6 @@
 import api from './api';
 import mediaService from './mediaService';
+import { startDownload } from '@/utils/download';
 
 const batchOperationsService = {
   deleteMultiple: async (ids: number[]): Promise<void> => {
@@ -46,23 +47,8 @@ const batchOperationsService = {
   },
 
   downloadMultiple: async (ids: number[]): Promise<void> => {
-    // Download multiple files
-    // Note: This will trigger multiple downloads
-    for (const id of ids) {
-      const response = await api.get(`/media/${id}`);
-      const mediaFile = response.data;
-      const downloadUrl = `/api/files/original/${mediaFile.filePath.split('/').pop()}`;
-
-      const link = document.createElement('a');
-      link.href = downloadUrl;
-      link.download = mediaFile.fileName;
-      document.body.appendChild(link);
-      link.click();
-      document.body.removeChild(link);
-
-      // Add small delay between downloads to avoid browser blocking
-      await new Promise((resolve) => setTimeout(resolve, 100));
-    }
+    // One ZIP of the originals, streamed by the backend as it is built and by the browser to disk
+    await startDownload('/media/download', 'POST', { mediaIds: ids.join(',') });
   },
 };
 
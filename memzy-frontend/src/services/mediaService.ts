@@ -1,5 +1,6 @@
 import { MediaFile, PageResponse, MediaType } from '@/types';
 import apiService from './api';
+import { decodeBlurHash, isValidBlurHash } from '@/utils/blurhash';
 
 export interface SearchParams {
   mediaType?: MediaType;
@@ -13,8 +14,49 @@ export interface SearchParams {
   sortDirection?: string;
 }
 
+export interface ChunkedUpload {
+  uploadId: string;
+  fileName: string;
+  fileSize: number;
+  chunkSize: number;
+  totalChunks: number;
+  offset: number;
+  receivedChunks: number[];
+  missingChunks: number[];
+}
+
+export interface HashPreflight {
+  sha256: string;
+  size: number;
+  exists?: boolean;
+  mediaId?: number;
+}
+
+export interface BulkUploadResult {
+  index: number;
+  fileName: string;
+  success: boolean;
+  mediaFile?: MediaFile;
+  error?: string;
+}
+
+const API_BASE_URL = import.meta.env.VITE_API_BASE_URL || 'http://localhost:8080/api';
+
+// Files above this size use the resumable chunked upload API instead of a single multipart POST
+export const CHUNKED_UPLOAD_THRESHOLD = 32 * 1024 * 1024;
+const CHUNK_SIZE = 8 * 1024 * 1024;
+const PARALLEL_CHUNKS = 3;
+// Small files are sent together through the bulk endpoint, a batch at a time
+export const BULK_UPLOAD_MAX_FILES = 100;
+export const BULK_UPLOAD_MAX_BYTES = 256 * 1024 * 1024;
+const CHUNK_RETRIES = 3;
+
 class MediaService {
   async uploadMedia(file: File): Promise<MediaFile> {
+    if (file.size > CHUNKED_UPLOAD_THRESHOLD) {
+      return this.uploadMediaChunked(file);
+    }
+
     const formData = new FormData();
     formData.append('file', file);
 
@@ -27,6 +69,97 @@ class MediaService {
     return response.data;
   }
 
+  async uploadMediaChunked(file: File): Promise<MediaFile> {
+    // Resume an earlier attempt for the same file if the server still has it
+    const resumeKey = `chunked-upload:${file.name}:${file.size}:${file.lastModified}`;
+    let upload: ChunkedUpload | null = null;
+    const previousId = localStorage.getItem(resumeKey);
+    if (previousId) {
+      try {
+        upload = (await apiService.get<ChunkedUpload>(`/media/uploads/${previousId}`)).data;
+      } catch {
+        localStorage.removeItem(resumeKey);
+      }
+    }
+    if (!upload) {
+      upload = (await apiService.post<ChunkedUpload>('/media/uploads', {
+        fileName: file.name,
+        fileSize: file.size,
+        chunkSize: CHUNK_SIZE,
+      })).data;
+      localStorage.setItem(resumeKey, upload.uploadId);
+    }
+
+    const { uploadId, chunkSize } = upload;
+    const pending = [...upload.missingChunks];
+    const uploadChunk = async (index: number) => {
+      const blob = file.slice(index * chunkSize, Math.min((index + 1) * chunkSize, file.size));
+      for (let attempt = 1; ; attempt++) {
+        try {
+          await apiService.put(`/media/uploads/${uploadId}/chunks/${index}`, blob, {
+            headers: { 'Content-Type': 'application/octet-stream' },
+          });
+          return;
+        } catch (error) {
+          if (attempt >= CHUNK_RETRIES) throw error;
+        }
+      }
+    };
+    const worker = async () => {
+      while (pending.length > 0) {
+        await uploadChunk(pending.shift() as number);
+      }
+    };
+    await Promise.all(Array.from({ length: PARALLEL_CHUNKS }, worker));
+
+    const response = await apiService.post<MediaFile>(`/media/uploads/${uploadId}/complete`);
+    localStorage.removeItem(resumeKey);
+    return response.data;
+  }
+
+  /**
+   * Upload several files in one request. The server streams one NDJSON result per file as each
+   * finishes, so onResult fires progressively rather than once at the end.
+   */
+  async uploadMediaBulk(files: File[], onResult: (result: BulkUploadResult) => void): Promise<void> {
+    const formData = new FormData();
+    files.forEach((file) => formData.append('files', file));
+
+    // fetch instead of axios: axios cannot read a streamed response body in the browser
+    const token = localStorage.getItem('token');
+    const response = await fetch(`${API_BASE_URL}/media/upload/bulk`, {
+      method: 'POST',
+      body: formData,
+      headers: token ? { Authorization: `Bearer ${token}` } : undefined,
+    });
+    if (!response.ok || !response.body) {
+      throw new Error(`Bulk upload failed with status ${response.status}`);
+    }
+
+    const reader = response.body.getReader();
+    const decoder = new TextDecoder();
+    let buffered = '';
+    for (;;) {
+      const { done, value } = await reader.read();
+      if (done) break;
+      buffered += decoder.decode(value, { stream: true });
+      const lines = buffered.split('\n');
+      buffered = lines.pop() ?? '';
+      lines.filter((line) => line.trim()).forEach((line) => onResult(JSON.parse(line)));
+    }
+    if (buffered.trim()) {
+      onResult(JSON.parse(buffered));
+    }
+  }
+
+  /**
+   * Ask the server which files (by SHA-256 and size) are already in the library so they can be skipped.
+   */
+  async checkExistingHashes(files: HashPreflight[]): Promise<HashPreflight[]> {
+    const response = await apiService.post<HashPreflight[]>('/media/preflight', files);
+    return response.data;
+  }
+
   async getUserMedia(page: number = 0, size: number = 20, sortBy: string = 'createdAt', sortDirection: string = 'DESC'): Promise<PageResponse<MediaFile>> {
     const response = await apiService.get<PageResponse<MediaFile>>('/media', {
       params: { page, size, sortBy, sortDirection },
@@ -92,12 +225,61 @@ class MediaService {
     return `http://localhost:8080/api/files/thumbnails/${size}/${newFilename}`;
   }
 
+  getPreviewClipUrl(thumbnailPath: string): string {
+    // Thumbnails are named <fileHash>_<size>.jpg; the clip is keyed by the same hash
+    const filename = thumbnailPath.split(/[/\\]/).pop() || '';
+    const fileHash = filename.split('_')[0];
+    return `http://localhost:8080/api/files/previews/${fileHash}.mp4`;
+  }
+
+  // Decoded BlurHash placeholders, keyed by hash; decoding is cheap but not free on long grids
+  private placeholderCache = new Map<string, string>();
+
+  getPlaceholderUrl(blurHash: string): string | undefined {
+    const cached = this.placeholderCache.get(blurHash);
+    if (cached) {
+      return cached;
+    }
+    if (!isValidBlurHash(blurHash)) {
+      return undefined;
+    }
+
+    const size = 32;
+    const canvas = document.createElement('canvas');
+    canvas.width = size;
+    canvas.height = size;
+    const context = canvas.getContext('2d');
+    if (!context) {
+      return undefined;
+    }
+    const imageData = context.createImageData(size, size);
+    imageData.data.set(decodeBlurHash(blurHash, size, size));
+    context.putImageData(imageData, 0, 0);
+
+    const url = canvas.toDataURL();
+    this.placeholderCache.set(blurHash, url);
+    return url;
+  }
+
+  getHlsUrl(thumbnailPath: string): string {
+    // Keyed by the content hash, like the preview clips
+    const filename = thumbnailPath.split(/[/\\]/).pop() || '';
+    const fileHash = filename.split('_')[0];
+    return `http://localhost:8080/api/files/hls/${fileHash}/master.m3u8`;
+  }
+
   getOriginalUrl(filePath: string): string {
     // Handle both forward and backward slashes (Windows vs Unix paths)
     const filename = filePath.split(/[/\\]/).pop();
     return `http://localhost:8080/api/files/original/${filename}`;
   }
 
+  getPlaybackUrl(filePath: string): string {
+    // Served from the faststart copy once there is one; downloads keep using the original
+    const filename = filePath.split(/[/\\]/).pop();
+    return `http://localhost:8080/api/files/playback/${filename}`;
+  }
+
   async getStorageStats(): Promise<StorageStats> {
     const response = await apiService.get<StorageStats>('/media/stats');
     return response.data;
@@ -41,6 +41,8 @@ export enum MediaType {
   VIDEO = 'VIDEO',
 }
 
+export type ProcessingStatus = 'PENDING' | 'PROCESSING' | 'READY' | 'FAILED';
+
 export interface MediaFile {
   id: number;
   fileName: string;
@@ -52,6 +54,8 @@ export interface MediaFile {
   height?: number;
   duration?: number;
   thumbnailPath?: string;
+  blurHash?: string;
+  processingStatus?: ProcessingStatus;
   dateTaken?: string;
   isFavorite: boolean;
   isDeleted: boolean;
@@ -0,0 +1,93 @@
+// Minimal BlurHash decoder (https://blurha.sh), matching the backend's BlurHashEncoder.
+
+const BASE83_CHARS =
+  '0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~';
+
+const decode83 = (value: string): number => {
+  let result = 0;
+  for (const char of value) {
+    const digit = BASE83_CHARS.indexOf(char);
+    if (digit < 0) {
+      throw new Error(`Invalid BlurHash character: ${char}`);
+    }
+    result = result * 83 + digit;
+  }
+  return result;
+};
+
+const sRGBToLinear = (value: number): number => {
+  const v = value / 255;
+  return v <= 0.04045 ? v / 12.92 : Math.pow((v + 0.055) / 1.055, 2.4);
+};
+
+const linearToSRGB = (value: number): number => {
+  const v = Math.max(0, Math.min(1, value));
+  return v <= 0.0031308
+    ? Math.trunc(v * 12.92 * 255 + 0.5)
+    : Math.trunc((1.055 * Math.pow(v, 1 / 2.4) - 0.055) * 255 + 0.5);
+};
+
+const signPow = (value: number, exp: number): number => Math.sign(value) * Math.pow(Math.abs(value), exp);
+
+export const isValidBlurHash = (blurHash: string): boolean => {
+  if (!blurHash || blurHash.length < 6) {
+    return false;
+  }
+  try {
+    const sizeFlag = decode83(blurHash[0]);
+    const numY = Math.floor(sizeFlag / 9) + 1;
+    const numX = (sizeFlag % 9) + 1;
+    return blurHash.length === 4 + 2 * numX * numY;
+  } catch {
+    return false;
+  }
+};
+
+/**
+ * Decode a BlurHash into RGBA pixels, ready for ImageData.
+ */
+export const decodeBlurHash = (blurHash: string, width: number, height: number): Uint8ClampedArray => {
+  const sizeFlag = decode83(blurHash[0]);
+  const numY = Math.floor(sizeFlag / 9) + 1;
+  const numX = (sizeFlag % 9) + 1;
+  const maximumValue = (decode83(blurHash[1]) + 1) / 166;
+
+  const colors: number[][] = [];
+  for (let i = 0; i < numX * numY; i++) {
+    if (i === 0) {
+      const value = decode83(blurHash.substring(2, 6));
+      colors.push([sRGBToLinear(value >> 16), sRGBToLinear((value >> 8) & 255), sRGBToLinear(value & 255)]);
+    } else {
+      const value = decode83(blurHash.substring(4 + i * 2, 6 + i * 2));
+      colors.push([
+        signPow((Math.floor(value / (19 * 19)) - 9) / 9, 2) * maximumValue,
+        signPow(((Math.floor(value / 19) % 19) - 9) / 9, 2) * maximumValue,
+        signPow(((value % 19) - 9) / 9, 2) * maximumValue,
+      ]);
+    }
+  }
+
+  const pixels = new Uint8ClampedArray(width * height * 4);
+  for (let y = 0; y < height; y++) {
+    for (let x = 0; x < width; x++) {
+      let r = 0;
+      let g = 0;
+      let b = 0;
+      for (let j = 0; j < numY; j++) {
+        for (let i = 0; i < numX; i++) {
+          const basis = Math.cos((Math.PI * x * i) / width) * Math.cos((Math.PI * y * j) / height);
+          const color = colors[i + j * numX];
+          r += color[0] * basis;
+          g += color[1] * basis;
+          b += color[2] * basis;
+        }
+      }
+      const offset = 4 * (x + y * width);
+      pixels[offset] = linearToSRGB(r);
+      pixels[offset + 1] = linearToSRGB(g);
+      pixels[offset + 2] = linearToSRGB(b);
+      pixels[offset + 3] = 255;
+    }
+  }
+  return pixels;
+};
@@ -0,0 +1,27 @@
+import apiService from '@/services/api';
+
+// Start a download by submitting a hidden form, so the browser streams the response to disk
+// instead of holding it in page memory. A navigation cannot send the Authorization header, so
+// a short-lived download token from the backend goes along as a field.
+export const startDownload = async (
+  path: string,
+  method: 'GET' | 'POST',
+  fields: Record<string, string> = {}
+): Promise<void> => {
+  const response = await apiService.post<{ token: string }>('/media/download-token');
+
+  const form = document.createElement('form');
+  form.method = method;
+  form.action = `${apiService.getApi().defaults.baseURL}${path}`;
+  form.style.display = 'none';
+  Object.entries({ ...fields, downloadToken: response.data.token }).forEach(([name, value]) => {
+    const input = document.createElement('input');
+    input.type = 'hidden';
+    input.name = name;
+    input.value = value;
+    form.appendChild(input);
+  });
+  document.body.appendChild(form);
+  form.submit();
+  document.body.removeChild(form);
+};